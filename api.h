@@ -10,6 +10,37 @@ extern "C" {
     // Основная логика: принимает отправителя и текст, который шел после команды
     EXPORT const char* handle_message(const char* sender, const char* text);
 
+    // Необязательная замена handle_message без лишних копий: строки приходят с длиной (и с 0 в конце),
+    // ответ пишется в out (не больше out_cap байт, UTF-8, 0 в конце не нужен).
+    // Вернуть длину ответа; если она больше out_cap — сервер даст буфер побольше и вызовет еще раз.
+    // Отрицательное значение — ошибка. Если функция есть, сервер вызывает ее вместо handle_message.
+    EXPORT int handle_message_buf(const char* sender, int sender_len, const char* text, int text_len,
+                                  char* out, int out_cap);
+
+    // Необязательная: сразу count вызовов (сервер копит их несколько миллисекунд или до N штук).
+    // Ответы записать подряд в out, длину i-го ответа — в out_lens[i]. Вернуть суммарную длину;
+    // если она больше out_cap — сервер вызовет еще раз с буфером побольше. Отрицательное значение — ошибка
+    // всей пачки. Если функция есть, одиночные вызовы тоже идут через нее.
+    EXPORT int handle_batch(int count, const char** senders, const char** texts,
+                            char* out, int out_cap, int* out_lens);
+
+    // Необязательные: для "чистых" плагинов, у которых ответ зависит только от текста.
+    // cache_ttl — сколько секунд сервер может отдавать сохраненный ответ без вызова плагина (0 — не кэшировать).
+    // cache_per_sender — вернуть 1, если ответ зависит еще и от отправителя.
+    // Вызываются один раз при загрузке.
+    EXPORT int cache_ttl();
+    EXPORT int cache_per_sender();
+
+    // Необязательная: фильтр каждой строки чата (сообщения в комнату, @личные и #mass) до того, как ее увидят другие.
+    // room — имя комнаты, "@получатель" для лички или "*" для #mass. Вернуть NULL — пропустить как есть,
+    // "" — выбросить сообщение, любую другую строку — заменить ею текст.
+    // Вызывается параллельно из нескольких потоков; строка ответа должна жить до следующего вызова в этом потоке.
+    EXPORT const char* on_message(const char* sender, const char* room, const char* text);
+
+    // Необязательная: фаза фильтра (по умолчанию 0). Фазы идут по возрастанию одна за другой,
+    // фильтры одной фазы получают один и тот же текст и работают одновременно.
+    EXPORT int on_message_phase();
+
     // Возвращает имя команды (без #)
     EXPORT const char* get_name();
 
@@ -0,0 +1,53 @@
+package me.project.bench;
+
+import me.project.ChatServer;
+import me.project.ClientHandler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+Рассылка одного сообщения: кодирование в UTF-8 один раз + duplicate() в очередь каждого получателя.
+everyone — ChatServer.broadcast (все клиенты), room — broadcastRoom (все сидят в одной комнате).
+Каждый десятый клиент держит отправителя в избранном (вторая кодировка), каждый сотый — в черном списке.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dchat.outq.capacity=64")
+@State(Scope.Benchmark)
+public class BroadcastBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int clients;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Clients.reset();
+        for (int i = 0; i < clients; i++) {
+            ClientHandler c = Clients.online("user" + i, ChatServer.DEFAULT_ROOM);
+            if (i % 10 == 0) c.favorites.add("alice");
+            if (i % 100 == 1) c.blacklist.add("alice");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Clients.reset();
+    }
+
+    @Benchmark
+    public void everyone() {
+        ChatServer.broadcast("alice: hello everyone, this is a typical chat line", "alice", false);
+    }
+
+    @Benchmark
+    public void room() {
+        ChatServer.broadcastRoom(ChatServer.DEFAULT_ROOM, "alice: hello room, this is a typical chat line", "alice", false);
+    }
+
+    @Benchmark
+    public void system() {
+        ChatServer.broadcast("Плагин #echo скомпилирован и загружен!", "System", true);
+    }
+}
@@ -0,0 +1,54 @@
+package me.project.bench;
+
+import me.project.ChatServer;
+import me.project.ClientHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Клиенты без сети: ClientHandler поверх сокета, которого нет. Рассылка кладет байты в OutboundQueue клиента,
+писателя нет, поэтому очередь быстро заполняется и дальше работает политика переполнения (по умолчанию
+DROP_OLDEST). Бенчмарки запускают JVM с -Dchat.outq.capacity=64, чтобы 10k полных очередей помещались в память.
+ */
+final class Clients {
+    private Clients() {}
+
+    static final class MemorySocket extends Socket {
+        @Override
+        public InetAddress getInetAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+    }
+
+    // Вошедший клиент в комнате room (без рассылки "joined", которую сделал бы ChatServer.joinRoom)
+    static ClientHandler online(String name, String room) {
+        ClientHandler c = new ClientHandler(new MemorySocket());
+        c.username = name;
+        c.room = room;
+        ChatServer.clients.add(c);
+        ChatServer.sessionOnline(c);
+        ChatServer.rooms.computeIfAbsent(room, r -> ConcurrentHashMap.newKeySet()).add(c);
+        return c;
+    }
+
+    static void reset() {
+        ChatServer.clients.clear();
+        ChatServer.sessions.clear();
+        ChatServer.rooms.clear();
+    }
+}
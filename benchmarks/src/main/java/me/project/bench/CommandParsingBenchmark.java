@@ -0,0 +1,44 @@
+package me.project.bench;
+
+import me.project.ChatServer;
+import me.project.ClientHandler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+Разбор строки клиента в ClientHandler (onLine -> processMessage) и то, что за ним следует, для разных видов строк:
+обычный текст (рассылка в комнату на 10 человек), @личное, встроенные #команды и неизвестная команда.
+Плагинов нет, фильтров on_message нет — это путь без нативного кода.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dchat.outq.capacity=64")
+@State(Scope.Benchmark)
+public class CommandParsingBenchmark {
+    @Param({"hello everyone", "@bob hi there", "#help", "#help 2", "#rooms", "#nosuchcommand arg"})
+    public String line;
+
+    private ClientHandler alice;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Clients.reset();
+        alice = Clients.online("alice", ChatServer.DEFAULT_ROOM);
+        Clients.online("bob", ChatServer.DEFAULT_ROOM);
+        for (int i = 0; i < 8; i++) Clients.online("user" + i, ChatServer.DEFAULT_ROOM);
+        for (int i = 0; i < 20; i++) Clients.online("other" + i, "room" + i);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Clients.reset();
+    }
+
+    @Benchmark
+    public void onLine() {
+        alice.onLine(line);
+    }
+}
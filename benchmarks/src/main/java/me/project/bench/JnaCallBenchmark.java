@@ -0,0 +1,95 @@
+package me.project.bench;
+
+import com.sun.jna.Native;
+import me.project.ChatServer;
+import me.project.LoadedPlugin;
+import me.project.PluginInterface;
+import me.project.plugin.BufferCall;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/*
+Вызов нативного плагина. Маленькая библиотека собирается g++ при старте (нужен g++ в PATH).
+    handleMessage — прямой JNA-вызов handle_message (строки туда и обратно, старый ABI);
+    bufferCall    — handle_message_buf через BufferCall (прямые буферы потока, без выделения строк в C);
+    pluginCall    — то, что делает сервер на #cmd: LoadedPlugin.call (пул плагина, CompletableFuture) и ожидание ответа.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djna.encoding=UTF-8")
+@State(Scope.Benchmark)
+public class JnaCallBenchmark {
+    private static final String SOURCE = String.join("\n",
+            "#include <cstring>",
+            "#include <string>",
+            "static thread_local std::string out;",
+            "extern \"C\" {",
+            "const char* get_name() { return \"benchecho\"; }",
+            "const char* get_description() { return \"echo for benchmarks\"; }",
+            "const char* handle_message(const char* sender, const char* text) {",
+            "    out.assign(sender); out += \": \"; out += text; return out.c_str();",
+            "}",
+            "int handle_message_buf(const char* sender, int sender_len, const char* text, int text_len, char* o, int cap) {",
+            "    int n = sender_len + 2 + text_len;",
+            "    if (n > cap) return n;",
+            "    memcpy(o, sender, sender_len); memcpy(o + sender_len, \": \", 2); memcpy(o + sender_len + 2, text, text_len);",
+            "    return n;",
+            "}",
+            "}",
+            "");
+
+    @Param({"hello", "a somewhat longer line of chat text that a plugin would typically receive as its argument"})
+    public String text;
+
+    private File dir;
+    private PluginInterface lib;
+    private BufferCall buffer;
+    private LoadedPlugin plugin;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        dir = Files.createTempDirectory("chat-bench").toFile();
+        File src = new File(dir, "benchecho.cpp");
+        File so = new File(dir, "benchecho" + ChatServer.LIB_EXT);
+        Files.writeString(src.toPath(), SOURCE, StandardCharsets.UTF_8);
+        Process p = new ProcessBuilder("g++", "-O2", "-shared", "-fPIC", "-o", so.getAbsolutePath(), src.getAbsolutePath())
+                .redirectErrorStream(true).start();
+        String output = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        if (p.waitFor() != 0) throw new IOException("g++ failed:\n" + output);
+
+        lib = Native.load(so.getAbsolutePath(), PluginInterface.class);
+        buffer = BufferCall.bind(lib);
+        if (buffer == null) throw new IllegalStateException("handle_message_buf not found");
+        plugin = new LoadedPlugin(lib, so.getName(), null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        plugin.retire(); // выгружает библиотеку, когда закончатся вызовы
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public String handleMessage() {
+        return lib.handle_message("alice", text);
+    }
+
+    @Benchmark
+    public String bufferCall() {
+        return buffer.call("alice", text);
+    }
+
+    @Benchmark
+    public String pluginCall() {
+        return plugin.call("alice", text).join();
+    }
+}
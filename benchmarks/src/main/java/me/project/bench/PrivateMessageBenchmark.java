@@ -0,0 +1,48 @@
+package me.project.bench;
+
+import me.project.ChatServer;
+import me.project.ClientHandler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+Личное сообщение онлайн-пользователю: поиск сессий по нику (индекс sessions) и доставка во все его сессии.
+Получатель случайный, чтобы не мерить один и тот же горячий элемент карты.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dchat.outq.capacity=64")
+@State(Scope.Benchmark)
+public class PrivateMessageBenchmark {
+    @Param({"1000", "100000"})
+    public int users;
+
+    private ClientHandler sender;
+    private String[] names;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Clients.reset();
+        names = new String[users];
+        for (int i = 0; i < users; i++) {
+            names[i] = "user" + i;
+            Clients.online(names[i], "room" + (i % 50));
+        }
+        sender = Clients.online("alice", ChatServer.DEFAULT_ROOM);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Clients.reset();
+    }
+
+    @Benchmark
+    public void sendPrivate() {
+        String target = names[ThreadLocalRandom.current().nextInt(names.length)];
+        ChatServer.sendPrivate(sender, target, "hi there");
+    }
+}
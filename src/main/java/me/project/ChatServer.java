@@ -2,13 +2,20 @@ package me.project;
 
 import com.sun.jna.Native;
 import com.sun.net.httpserver.HttpServer;
+import me.project.cluster.Cluster;
 import me.project.http.*;
+import me.project.net.NioChatServer;
+import me.project.plugin.PluginCatalog;
+import me.project.plugin.PluginHostPool;
+import me.project.store.MailboxStore;
+import me.project.store.MessageJournal;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
@@ -19,49 +26,94 @@ import java.util.concurrent.*;
 1. Хранилище данных (Глобальная память)
 В начале класса объявлены статические карты (Map) и списки. Это "общая память" сервера, к которой имеют доступ все потоки:
 plugins: Здесь хранятся все активные C++ функции.
-clients: Список всех людей, кто сейчас сидит в чате.
+clients: Список всех людей, кто сейчас сидит в чате (конкурентный set: вход/выход не копируют весь массив, как CopyOnWriteArraySet).
+rooms: Комнаты. У каждой свой set участников, поэтому обычное сообщение стоит O(размер комнаты), а не O(все клиенты).
+    Каждый клиент сидит ровно в одной комнате, после входа — в DEFAULT_ROOM.
+sessions: Индекс "ник -> его сессии" (один ник может быть открыт с нескольких устройств), чтобы личка не перебирала всех клиентов.
 ipHistory: Запоминает, какой ник был у IP адреса (для "С возвращением, Alice").
-offlineMessages: Почтовый ящик для тех, кого нет в сети.
+journal: Журнал всех сообщений комнат и лички на диске (папка journal, см. MessageJournal), из него отвечает #history.
+mailbox: Почтовый ящик для тех, кого нет в сети. Живет на диске (папка mailbox, см. MailboxStore), переживает перезапуск.
 2. Запуск (main)
 Когда вы запускаете программу, происходит следующее:
 Уборка мусора: Сервер удаляет старые временные файлы (.trash, loaded_copy_...), оставшиеся с прошлого раза. Это критично для Windows, чтобы не накапливать заблокированные файлы.
-Загрузка старых плагинов: Он сканирует папку plugins. Если вы скомпилировали плагин вчера, сервер найдет его файл .dll/.so и сразу загрузит.
+Хосты плагинов (-Dchat.plugins.hosts=N): плагины можно грузить не в JVM сервера, а в N дочерних процессов (PluginHostPool).
+Segfault в C++ тогда убивает только хост, его перезапускают, а чат продолжает работать.
 Запуск Веб-сервера (порт 8081): Подключает те самые обработчики (CompileHandler, ListHandler и т.д.), которые мы разбирали ранее.
+Загрузка старых плагинов (scanPlugins): порты уже открыты, плагины подтягиваются в фоне. Если рядом с .dll/.so лежит
+свежий .txt (имя + описание), команда регистрируется заглушкой и библиотека грузится только при первом #cmd.
+Остальные грузятся параллельно на пуле pluginLoader (chat.plugins.loadThreads).
 Запуск Чат-сервера (порт 8888): Открывает порт для подключения клиентов.
 Вечный цикл: Сервер бесконечно ждет новых подключений. Как только кто-то заходит, он создает для него отдельный поток (ClientHandler) и сразу возвращается к ожиданию следующих гостей.
+Режимы транспорта (-Dchat.mode=...):
+    nio (по умолчанию): несколько циклов Selector (по одному на ядро) обслуживают все соединения без потока на клиента, см. NioChatServer.
+    threads: старый вариант, один поток из пула на каждого клиента.
+    virtual: как threads, но каждый ClientHandler.run() живет на виртуальном потоке (нужна Java 21, иначе откат на threads).
+HTTP-интерфейс тоже больше не сидит на одном потоке-диспетчере: в режиме virtual каждый запрос получает виртуальный поток,
+в остальных режимах — небольшой пул (chat.http.threads), чтобы долгий /compile не блокировал /list.
+/events — поток событий для админки (SSE): системные сообщения, лента комнат, изменения плагинов, сборки (см. EventHub).
+/metrics — счетчики и гистограммы задержек (рассылка, личка, запись в сокет, плагины, сборка) для Prometheus (см. Metrics).
 3. Хитрая загрузка плагинов (loadPluginSafe)
 Это самая важная часть для горячей замены кода.
 Проблема: В Windows, если программа загрузила .dll, этот файл нельзя удалить или перезаписать. Это значит, вы не смогли бы перекомпилировать код без перезапуска сервера.
 Решение: Этот метод копирует файл плагина во временный файл (loaded_copy_...) и загружает именно копию!
 Итог: Оригинальный файл остается свободным. Компилятор может спокойно перезаписывать его, а сервер при следующей загрузке просто создаст новую копию.
+Перезагрузка: новая версия полностью загружается до подмены, потом одним put встает в слот. Старая версия
+освобождается (dispose библиотеки + удаление копии), когда закончатся ее незаконченные вызовы (см. LoadedPlugin).
 4. Выключение плагина (unloadPlugin)
-Удаляет плагин из памяти.
+Убирает плагин из слота; библиотека выгружается после последнего вызова.
 Пытается удалить временный файл-копию. Если Windows не дает это сделать (файл занят), он переименовывает его в .trash. Этот мусор будет удален при следующем запуске сервера (см. пункт 2).
 5. Почта и Рассылка (broadcast и sendPrivate)
 Broadcast: Отправляет сообщение всем. Тут же проверяет:
 Не в черном ли списке отправитель?
 Не является ли он "любимым автором" (тогда красит сообщение в золото/желтый)?
 SendPrivate:
-Ищет пользователя онлайн.
-Если не нашел — кладет сообщение в offlineMessages (с лимитом 10 штук), чтобы пользователь прочитал его, когда зайдет.
+Ищет пользователя онлайн (по индексу sessions, O(1)) и отправляет во все его сессии.
+Если не нашел — кладет сообщение в mailbox (лимит -Dchat.mailbox.limit, по умолчанию 10), чтобы пользователь прочитал его, когда зайдет.
+6. Кластер (-Dchat.cluster.port / -Dchat.cluster.peers, см. cluster.Cluster)
+Рассылки дополнительно уходят на другие узлы, а личное сообщение — на узел, где получатель онлайн.
+Узел-получатель доставляет их своим клиентам через *Local / deliver* и дальше не пересылает.
+Порты задаются -Dchat.port и -Dchat.http.port, чтобы на одной машине можно было поднять несколько узлов.
  */
 
 
 
 
 public class ChatServer {
-    public static final int PORT = 8888;
-    public static final int HTTP_PORT = 8081;
+    public static final int PORT = Integer.getInteger("chat.port", 8888);
+    public static final int HTTP_PORT = Integer.getInteger("chat.http.port", 8081);
 
     public static final String OS = System.getProperty("os.name").toLowerCase();
     public static final boolean IS_WIN = OS.contains("win");
     public static final boolean IS_MAC = OS.contains("mac");
     public static final String LIB_EXT = IS_WIN ? ".dll" : (IS_MAC ? ".dylib" : ".so");
 
+    public static final String MODE = System.getProperty("chat.mode", "nio");
+
     public static final Map<String, LoadedPlugin> plugins = new ConcurrentHashMap<>();
-    public static final Set<ClientHandler> clients = new CopyOnWriteArraySet<>();
+    public static final Set<ClientHandler> clients = ConcurrentHashMap.newKeySet();
+    public static final Map<String, Set<ClientHandler>> sessions = new ConcurrentHashMap<>();
+    public static final Map<String, Set<ClientHandler>> rooms = new ConcurrentHashMap<>();
+    public static final String DEFAULT_ROOM = "general";
     public static final Map<String, String> ipHistory = new ConcurrentHashMap<>();
-    public static final Map<String, List<String>> offlineMessages = new ConcurrentHashMap<>();
+    public static MailboxStore mailbox;
+    public static MessageJournal journal;
+
+    // Процессы-хосты плагинов (-Dchat.plugins.hosts=N); null — плагины грузятся прямо в JVM сервера
+    public static PluginHostPool pluginHosts;
+
+    // Что лежит в папке plugins и в каком состоянии — для /list (см. PluginCatalog)
+    public static PluginCatalog catalog;
+
+    // Пул потоков клиентов (читатель + писатель) в режимах threads/virtual
+    public static ExecutorService connectionPool;
+
+    // Загрузка библиотек плагинов: параллельно при старте и лениво при первом вызове команды
+    public static final ExecutorService pluginLoader = Executors.newFixedThreadPool(
+            Integer.getInteger("chat.plugins.loadThreads", Runtime.getRuntime().availableProcessors()), r -> {
+                Thread t = new Thread(r, "plugin-loader");
+                t.setDaemon(true);
+                return t;
+            });
 
     public static void main(String[] args) throws IOException {
         System.setProperty("jna.encoding", "UTF-8");
@@ -73,25 +125,50 @@ public class ChatServer {
         );
         if (junk != null) for (File f : junk) f.delete();
 
-        System.out.println("Scanning for plugins...");
-        File[] files = pluginDir.listFiles((dir, name) -> name.endsWith(LIB_EXT) && !name.contains("loaded_copy_"));
-        if (files != null) {
-            for (File f : files) loadPluginSafe(f);
+        mailbox = MailboxStore.openDefault();
+        journal = MessageJournal.openDefault();
+
+        if (PluginHostPool.HOSTS > 0) {
+            System.out.println("Starting " + PluginHostPool.HOSTS + " plugin host process(es)...");
+            pluginHosts = new PluginHostPool(PluginHostPool.HOSTS);
         }
 
+        catalog = new PluginCatalog(pluginDir);
+
         HttpServer httpServer = HttpServer.create(new InetSocketAddress(HTTP_PORT), 0);
         httpServer.createContext("/", new FrontendHandler());
         httpServer.createContext("/compile", new CompileHandler());
         httpServer.createContext("/list", new ListHandler());
         httpServer.createContext("/manage", new ManageHandler());
-        httpServer.setExecutor(null);
+        httpServer.createContext("/clients", new ClientsHandler());
+        httpServer.createContext("/stats", new StatsHandler());
+        httpServer.createContext("/events", new EventsHandler());
+        httpServer.createContext("/metrics", new MetricsHandler());
+        registerGauges();
+        httpServer.setExecutor(newHttpExecutor());
         httpServer.start();
         System.out.println("HTTP Interface: http://localhost:" + HTTP_PORT);
 
+        // Порты открываются сразу, плагины подтягиваются в фоне
+        scanPlugins(pluginDir);
+
+        Cluster.start();
+
+        if ("nio".equals(MODE)) {
+            new NioChatServer(PORT, NioChatServer.defaultLoopCount()).start();
+            return;
+        }
+
         ServerSocket serverSocket = new ServerSocket(PORT);
         System.out.println("Chat Server started on port " + PORT);
 
-        ExecutorService pool = Executors.newCachedThreadPool();
+        ExecutorService pool = null;
+        if ("virtual".equals(MODE)) {
+            pool = VirtualThreads.newPerTaskExecutor();
+            if (pool == null) System.err.println("Virtual threads need Java 21+, falling back to thread pool.");
+        }
+        if (pool == null) pool = Executors.newCachedThreadPool();
+        connectionPool = pool;
         while (true) {
             ClientHandler client = new ClientHandler(serverSocket.accept());
             clients.add(client);
@@ -99,87 +176,332 @@ public class ChatServer {
         }
     }
 
+    // Значения, которые и так есть в памяти сервера: считаются только в момент запроса /metrics
+    private static void registerGauges() {
+        Metrics.gauge("chat_clients", "Подключенные клиенты", () -> clients.size());
+        Metrics.gauge("chat_sessions", "Вошедшие пользователи (разные ники)", () -> sessions.size());
+        Metrics.gauge("chat_rooms", "Непустые комнаты", () -> rooms.size());
+        Metrics.gauge("chat_plugins", "Зарегистрированные команды плагинов", () -> plugins.size());
+        Metrics.gauge("chat_plugins_loaded", "Загруженные библиотеки плагинов (без ленивых заглушек)",
+                () -> plugins.values().stream().filter(LoadedPlugin::isLoaded).count());
+        Metrics.gauge("chat_events_subscribers", "Подписчики /events", EventHub::subscribers);
+        Metrics.counterOf("chat_pipeline_messages_total", "Строки чата, прошедшие через фильтры on_message", MessagePipeline.filtered::sum);
+        Metrics.counterOf("chat_pipeline_dropped_total", "Строки чата, выброшенные фильтрами", MessagePipeline.dropped::sum);
+        Metrics.counterOf("chat_pipeline_rewritten_total", "Строки чата, замененные фильтрами", MessagePipeline.rewritten::sum);
+        Metrics.counterOf("chat_pipeline_failed_open_total", "Ошибки и таймауты фильтров (строка пропущена как есть)", MessagePipeline.failedOpen::sum);
+    }
+
+    private static ExecutorService newHttpExecutor() {
+        if ("virtual".equals(MODE)) {
+            ExecutorService vt = VirtualThreads.newPerTaskExecutor();
+            if (vt != null) return vt;
+        }
+        return Executors.newFixedThreadPool(Integer.getInteger("chat.http.threads", 8));
+    }
+
+    // Плагины, у которых .txt не старше библиотеки, регистрируются заглушками (загрузятся при первом #cmd);
+    // остальные грузятся сразу, параллельно в pluginLoader
+    private static void scanPlugins(File pluginDir) {
+        File[] files = pluginDir.listFiles((dir, name) -> name.endsWith(LIB_EXT) && !name.contains("loaded_copy_"));
+        if (files == null) return;
+        int lazy = 0;
+        List<File> eager = new ArrayList<>();
+        for (File f : files) {
+            String[] meta = readMetaInfo(f);
+            if (meta != null && plugins.putIfAbsent(meta[0], new LoadedPlugin(meta[0], meta[1], f.getName())) == null) lazy++;
+            else eager.add(f);
+        }
+        if (catalog != null) catalog.changed();
+        HelpText.invalidate();
+        MessagePipeline.invalidate();
+        System.out.println("Scanning for plugins... " + lazy + " registered lazily, " + eager.size() + " to load");
+        for (File f : eager) pluginLoader.execute(() -> loadPluginSafe(f));
+    }
+
+    // Вызов команды, которая пока только заглушка: грузим библиотеку и ставим вместо нее
+    static LoadedPlugin activatePlugin(LoadedPlugin stub) {
+        LoadedPlugin current = plugins.get(stub.name);
+        if (current != null && current != stub) return current; // уже загрузили или перезагрузили вручную
+        if (current == null) return null;                       // выключили
+        LoadedPlugin p = loadPluginSafe(new File("plugins", stub.filename));
+        // Если .txt врал и имя команды другое — заглушка больше не нужна
+        if (p != null && !p.name.equals(stub.name) && plugins.remove(stub.name, stub)) {
+            stub.retire();
+            if (catalog != null) catalog.changed();
+            HelpText.invalidate();
+            MessagePipeline.invalidate();
+        }
+        return p != null && p.name.equals(stub.name) ? p : null;
+    }
+
     // --- ИЗМЕНЕНИЕ ЗДЕСЬ: Возвращаем LoadedPlugin ---
     public static LoadedPlugin loadPluginSafe(File originalFile) {
+        long start = System.nanoTime();
         try {
             String tempName = "loaded_copy_" + System.currentTimeMillis() + "_" + originalFile.getName();
             File tempFile = new File(originalFile.getParentFile(), tempName);
             Files.copy(originalFile.toPath(), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
 
-            PluginInterface lib = Native.load(tempFile.getAbsolutePath(), PluginInterface.class);
-            LoadedPlugin plugin = new LoadedPlugin(lib, originalFile.getName(), tempFile);
+            LoadedPlugin plugin;
+            try {
+                PluginInterface lib = pluginHosts != null
+                        ? pluginHosts.load(tempFile)
+                        : Native.load(tempFile.getAbsolutePath(), PluginInterface.class);
+                // Новая версия уже загружена и прогрета (имя, описание, символы, потоки пула) до подмены
+                plugin = new LoadedPlugin(lib, originalFile.getName(), tempFile);
+            } catch (Throwable e) {
+                tempFile.delete();
+                throw e;
+            }
 
-            plugins.put(plugin.name, plugin);
+            // Подмена одним put: команда ни на миг не пропадает. Старая версия освободится,
+            // когда закончатся ее вызовы (LoadedPlugin.retire)
+            LoadedPlugin old = plugins.put(plugin.name, plugin);
+            if (old != null) old.retire();
+            if (catalog != null) catalog.loaded(originalFile.getName(), plugin.name, plugin.description);
+            HelpText.invalidate();
+            MessagePipeline.invalidate();
 
             // --- НОВОЕ: Сохраняем инфо в файл, чтобы помнить его при выгрузке ---
-            saveMetaInfo(originalFile, plugin.name, plugin.description);
+            saveMetaInfo(originalFile, plugin.name, plugin.description, plugin.hook);
             // -------------------------------------------------------------------
 
-            System.out.println(" [+] Loaded #" + plugin.name);
+            System.out.println(" [+] Loaded #" + plugin.name + " v" + plugin.version + (plugin.batcher != null ? " (batch ABI)" : plugin.bufferCall != null ? " (buffer ABI)" : ""));
             tempFile.deleteOnExit();
 
+            Metrics.PLUGIN_LOADS.labels("ok").increment();
             return plugin;
         } catch (Throwable e) {
             System.err.println(" [-] Error loading " + originalFile.getName() + ": " + e.getMessage());
+            Metrics.PLUGIN_LOADS.labels("error").increment();
             return null;
+        } finally {
+            Metrics.PLUGIN_LOAD.recordSince(start);
         }
     }
 
     // --- НОВЫЙ МЕТОД ---
-    private static void saveMetaInfo(File dllFile, String name, String desc) {
+    private static void saveMetaInfo(File dllFile, String name, String desc, boolean hook) {
         // Создаем файл с таким же именем, но расширением .txt
         File meta = new File(dllFile.getParent(), dllFile.getName() + ".txt");
         try (PrintWriter w = new PrintWriter(meta, StandardCharsets.UTF_8)) {
             w.println(name);
             w.println(desc);
+            if (hook) w.println(HOOK_MARK);
         } catch (IOException e) {
             System.err.println("Failed to save meta for " + name);
         }
     }
 
+    // Третья строка .txt у фильтров: их нельзя откладывать до первой команды, они нужны на каждой строке чата
+    private static final String HOOK_MARK = "on_message";
+
+    // {имя, описание} из .txt, если он есть и не старше самой библиотеки (и это не фильтр)
+    private static String[] readMetaInfo(File dllFile) {
+        File meta = new File(dllFile.getParent(), dllFile.getName() + ".txt");
+        if (!meta.exists() || meta.lastModified() < dllFile.lastModified()) return null;
+        try {
+            List<String> lines = Files.readAllLines(meta.toPath(), StandardCharsets.UTF_8);
+            if (lines.isEmpty() || lines.get(0).isBlank()) return null;
+            if (lines.size() > 2 && lines.get(2).equals(HOOK_MARK)) return null;
+            return new String[]{lines.get(0), lines.size() > 1 ? lines.get(1) : "-"};
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     public static void unloadPlugin(String cmdName) {
         LoadedPlugin p = plugins.remove(cmdName);
         if (p != null) {
-            if (p.tempFile != null && p.tempFile.exists()) {
-                if (!p.tempFile.delete()) {
-                    File trash = new File(p.tempFile.getParent(), p.tempFile.getName() + ".trash");
-                    p.tempFile.renameTo(trash);
-                    trash.deleteOnExit();
-                }
-            }
+            // Библиотека и ее копия освободятся после последнего незаконченного вызова
+            p.retire();
+            if (catalog != null) catalog.changed();
+            HelpText.invalidate();
+            MessagePipeline.invalidate();
             broadcast("🔌 Плагин #" + cmdName + " выключен.", "System", true);
         }
     }
 
+    // Каждый вариант (обычный / ⭐ избранный / системный) кодируется в UTF-8 один раз на всю рассылку,
+    // а получатели получают duplicate() общего read-only буфера — без копирования байт
     public static void broadcast(String msg, String senderName, boolean isSystem) {
+        broadcastLocal(msg, senderName, isSystem);
+        Cluster.broadcast(MessageJournal.ALL_ROOMS, msg, senderName, isSystem);
+    }
+
+    // Только клиентам этого узла (сюда же приходят рассылки других узлов кластера)
+    public static void broadcastLocal(String msg, String senderName, boolean isSystem) {
+        record(MessageJournal.PUBLIC, MessageJournal.ALL_ROOMS, senderName, null, msg);
+        long start = System.nanoTime();
+        Metrics.RECIPIENTS.add(fanOut(clients, msg, senderName, isSystem));
+        BROADCAST_ALL.recordSince(start);
+        if (isSystem) EventHub.system(MessageJournal.ALL_ROOMS, msg);
+        else EventHub.chat(MessageJournal.ALL_ROOMS, senderName, msg);
+    }
+
+    // То же самое, но только участникам одной комнаты
+    public static void broadcastRoom(String room, String msg, String senderName, boolean isSystem) {
+        broadcastRoomLocal(room, msg, senderName, isSystem);
+        Cluster.broadcast(room, msg, senderName, isSystem);
+    }
+
+    public static void broadcastRoomLocal(String room, String msg, String senderName, boolean isSystem) {
+        record(MessageJournal.PUBLIC, room, senderName, null, msg);
+        Set<ClientHandler> members = rooms.get(room);
+        if (members != null) {
+            long start = System.nanoTime();
+            Metrics.RECIPIENTS.add(fanOut(members, msg, senderName, isSystem));
+            BROADCAST_ROOM.recordSince(start);
+        }
+        if (isSystem) EventHub.system(room, msg);
+        else EventHub.chat(room, senderName, msg);
+    }
+
+    // В журнал идет всё, кроме служебных "вошел/вышел" (их шлет "Server") — они только засоряют #history
+    public static void record(byte kind, String room, String from, String to, String msg) {
+        if (journal != null && !"Server".equals(from)) journal.append(kind, room, from, to, msg);
+    }
+
+    private static final Metrics.Histogram BROADCAST_ALL = Metrics.BROADCAST.labels("all");
+    private static final Metrics.Histogram BROADCAST_ROOM = Metrics.BROADCAST.labels("room");
+
+    // Возвращает, скольким клиентам сообщение поставлено в очередь
+    private static int fanOut(Iterable<ClientHandler> recipients, String msg, String senderName, boolean isSystem) {
         String finalMsg = isSystem ? "\u001B[32m[SYSTEM] " + msg + "\u001B[0m" : msg;
-        for (ClientHandler client : clients) {
+        ByteBuffer shared = ClientHandler.encodeShared(finalMsg);
+        ByteBuffer fav = null;
+        int sent = 0;
+        for (ClientHandler client : recipients) {
             if (!isSystem && (client.blacklist.contains(senderName))) continue;
-            if (!isSystem && client.favorites.contains(senderName)) { client.sendMessage("\u001B[33m⭐ " + msg + "\u001B[0m"); continue; }
-            client.sendMessage(finalMsg);
+            sent++;
+            if (!isSystem && client.favorites.contains(senderName)) {
+                if (fav == null) fav = ClientHandler.encodeShared("\u001B[33m⭐ " + msg + "\u001B[0m");
+                client.send(fav.duplicate());
+                continue;
+            }
+            client.send(shared.duplicate());
         }
+        return sent;
+    }
+
+    // Переводит клиента в комнату (из текущей, если он где-то был)
+    public static void joinRoom(ClientHandler client, String room) {
+        String old = client.room;
+        if (room.equals(old)) return;
+        if (old != null) leaveRoom(client);
+        rooms.compute(room, (name, set) -> {
+            if (set == null) set = ConcurrentHashMap.newKeySet();
+            set.add(client);
+            return set;
+        });
+        client.room = room;
+        broadcastRoom(room, client.username + " joined #" + room + ".", "Server", true);
+    }
+
+    public static void leaveRoom(ClientHandler client) {
+        String room = client.room;
+        if (room == null) return;
+        client.room = null;
+        rooms.computeIfPresent(room, (name, set) -> {
+            set.remove(client);
+            return set.isEmpty() ? null : set;
+        });
+        broadcastRoom(room, client.username + " left #" + room + ".", "Server", true);
+    }
+
+    // Вызывается после логина: ник -> сессия
+    public static void sessionOnline(ClientHandler client) {
+        sessions.compute(client.username, (name, set) -> {
+            if (set == null) set = ConcurrentHashMap.newKeySet();
+            set.add(client);
+            return set;
+        });
+        Cluster.presenceChanged(client.username);
+    }
+
+    // Пустой set удаляется атомарно вместе с последней сессией, чтобы индекс не рос от ушедших ников
+    public static void sessionOffline(ClientHandler client) {
+        if (client.username == null) return;
+        sessions.computeIfPresent(client.username, (name, set) -> {
+            set.remove(client);
+            return set.isEmpty() ? null : set;
+        });
+        Cluster.presenceChanged(client.username);
     }
 
     public static void sendPrivate(ClientHandler sender, String targetName, String msg) {
-        String formattedMsg = "\u001B[35m(Private) " + sender.username + ": " + msg + "\u001B[0m";
+        long start = System.nanoTime();
+        record(MessageJournal.PRIVATE, null, sender.username, targetName, msg);
+        boolean online = deliverOnline(sender.username, targetName, msg);
+        // Ник может быть онлайн сразу на нескольких узлах — получат все его сессии
+        boolean remote = Cluster.sendPrivate(sender.username, targetName, msg);
+        if (online || remote) {
+            Metrics.PRIVATES.labels(online ? "online" : "remote").increment();
+            Metrics.PRIVATE.recordSince(start);
+            return;
+        }
+        // Запись на диск — на потоке почты, цикл клиента не ждет
+        mailbox.appendAsync(targetName, "\u001B[35m(Offline) " + sender.username + ": " + msg + "\u001B[0m").whenComplete((saved, err) -> {
+            String delivery;
+            if (err != null) {
+                sender.sendMessage("❌ Mailbox error: " + err.getMessage());
+                delivery = "error";
+            } else if (saved) {
+                sender.sendMessage("💤 Saved offline.");
+                delivery = "offline";
+            } else {
+                sender.sendMessage("❌ Mailbox full.");
+                delivery = "mailbox_full";
+            }
+            Metrics.PRIVATES.labels(delivery).increment();
+            Metrics.PRIVATE.recordSince(start);
+        });
+    }
+
+    // Личное сообщение с другого узла кластера. Получатель мог уйти, пока оно шло, — тогда в почту этого узла
+    public static void deliverPrivate(String from, String targetName, String msg) {
+        record(MessageJournal.PRIVATE, null, from, targetName, msg);
+        if (deliverOnline(from, targetName, msg)) return;
+        mailbox.appendAsync(targetName, "\u001B[35m(Offline) " + from + ": " + msg + "\u001B[0m").whenComplete((saved, err) -> {
+            if (err != null) System.err.println("[Cluster] Mailbox error for " + targetName + ": " + err.getMessage());
+        });
+    }
+
+    // Почта, переехавшая с другого узла (см. Cluster): первой сессии ника, а если он уже ушел — в почту этого узла
+    // Завершается, когда почта показана или сохранена здесь (тогда узел-отправитель может ее удалить)
+    public static CompletableFuture<Void> deliverMail(String user, List<String> mail) {
+        Set<ClientHandler> targets = sessions.get(user);
+        ClientHandler target = targets == null ? null : targets.stream().findFirst().orElse(null);
+        if (target != null) {
+            target.showMail(mail);
+            return CompletableFuture.completedFuture(null);
+        }
+        return mailbox.restoreAsync(user, mail).whenComplete((v, err) -> {
+            if (err != null) System.err.println("[Cluster] Mailbox error for " + user + ": " + err.getMessage());
+        });
+    }
+
+    private static boolean deliverOnline(String from, String targetName, String msg) {
+        Set<ClientHandler> targets = sessions.get(targetName);
         boolean online = false;
-        for (ClientHandler client : clients) {
-            if (client.username.equals(targetName)) {
-                client.sendMessage(formattedMsg);
+        if (targets != null) {
+            ByteBuffer formatted = ClientHandler.encodeShared("\u001B[35m(Private) " + from + ": " + msg + "\u001B[0m");
+            for (ClientHandler client : targets) {
+                client.send(formatted.duplicate());
                 online = true;
-                break;
             }
         }
-        if (!online) {
-            offlineMessages.putIfAbsent(targetName, new ArrayList<>());
-            List<String> box = offlineMessages.get(targetName);
-            synchronized (box) {
-                if (box.size() >= 10) sender.sendMessage("❌ Mailbox full.");
-                else {
-                    box.add("\u001B[35m(Offline) " + sender.username + ": " + msg + "\u001B[0m");
-                    sender.sendMessage("💤 Saved offline.");
-                }
+        return online;
+    }
+
+    // #mass: "личное" сообщение всем клиентам этого узла, кроме заблокировавших отправителя
+    public static void deliverMass(String from, String msg) {
+        ByteBuffer fakePrivate = ClientHandler.encodeShared("\u001B[35m(Private) " + from + ": " + msg + "\u001B[0m");
+        for (ClientHandler client : clients) {
+            if (!client.blacklist.contains(from)) { // Уважаем чужой блок
+                client.send(fakePrivate.duplicate());
             }
         }
+        record(MessageJournal.PRIVATE, null, from, MessageJournal.ALL_ROOMS, msg);
     }
-}
\ No newline at end of file
+}
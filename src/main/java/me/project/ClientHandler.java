@@ -1,17 +1,38 @@
 package me.project;
 
+import me.project.cluster.Cluster;
+import me.project.net.NioConnection;
+import me.project.net.OutboundQueue;
+import me.project.plugin.PluginExecutor;
+import me.project.store.MessageJournal;
+
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 public class ClientHandler implements Runnable {
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
     private Socket socket;
-    private PrintWriter out;
     private BufferedReader in;
 
+    // NIO-режим: вместо сокета и потоков — соединение селектора
+    private NioConnection conn;
+    private String savedName;
+
     public String username;
     public String ip; // Храним IP адрес
+    public volatile String room; // Текущая комната (null до входа)
+
+    // Исходящие сообщения: отправитель только кладет сюда, в сокет пишет отдельный писатель
+    public final OutboundQueue outbound = new OutboundQueue();
 
     // Личные списки
     public Set<String> blacklist = new HashSet<>();
@@ -22,80 +43,203 @@ public class ClientHandler implements Runnable {
         this.ip = socket.getInetAddress().getHostAddress(); // Получаем IP
     }
 
+    public ClientHandler(NioConnection conn) {
+        this.conn = conn;
+        this.ip = conn.ip;
+    }
+
     public void sendMessage(String msg) {
-        if (out != null) out.println(msg);
+        send(encode(msg));
     }
 
-    private void sendHelp() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("\u001B[36m=== HELP ===\u001B[0m\n");
-        sb.append("@user msg - Личное сообщение (или оффлайн)\n");
-        sb.append("#mass msg - Массовое личное сообщение всем\n");
-        sb.append("#block user - В черный список\n");
-        sb.append("#fav user   - Любимый автор (подсветка)\n");
+    public void send(ByteBuffer line) {
+        if (!outbound.offer(line)) {
+            System.out.println("[Server] Disconnecting slow consumer " + username + " (" + ip + ")");
+            disconnect();
+            return;
+        }
+        if (conn != null) conn.wakeWriter();
+    }
 
-        if (!ChatServer.plugins.isEmpty()) {
-            sb.append("\u001B[36m--- Plugins ---\u001B[0m\n");
-            for (LoadedPlugin p : ChatServer.plugins.values()) {
-                sb.append("#").append(p.name).append(" -> ").append(p.description).append("\n");
-            }
+    public int queueDepth() {
+        return outbound.size() + (conn != null ? conn.inFlight() : 0);
+    }
+
+    public void disconnect() {
+        if (conn != null) conn.requestClose();
+        else try { socket.close(); } catch (IOException e) {}
+    }
+
+    public static ByteBuffer encode(String msg) {
+        byte[] body = msg.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer b = ByteBuffer.allocate(body.length + NEWLINE.length);
+        b.put(body).put(NEWLINE).flip();
+        return b;
+    }
+
+    // Для рассылки: один буфер на всех, каждому получателю — свой duplicate() (своя позиция, общие байты)
+    public static ByteBuffer encodeShared(String msg) {
+        return encode(msg).asReadOnlyBuffer();
+    }
+
+    // Пусто — первая страница (общие команды + плагины), число — страница, иначе — поиск по префиксу
+    private void sendHelp(String arg) {
+        if (arg.isEmpty()) {
+            send(HelpText.page(1));
+            return;
         }
-        sendMessage(sb.toString());
+        if (arg.matches("\\d{1,6}")) {
+            ByteBuffer page = HelpText.page(Integer.parseInt(arg));
+            if (page != null) send(page);
+            else sendMessage("Нет такой страницы, всего: " + HelpText.pages() + ".");
+            return;
+        }
+        sendMessage(HelpText.filter(arg.startsWith("#") ? arg.substring(1) : arg));
     }
 
-    @Override
-    public void run() {
-        try {
-            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    private static String pluginError(LoadedPlugin plugin, Throwable err) {
+        Throwable e = PluginExecutor.unwrap(err);
+        if (e instanceof RejectedExecutionException) return "⏳ Плагин #" + plugin.name + " перегружен, попробуйте позже.";
+        if (e instanceof TimeoutException) return "⌛ Плагин #" + plugin.name + " не ответил за " + plugin.timeoutMs() + " мс.";
+        return "Plugin Error: " + e.getMessage();
+    }
 
-            // --- ЛОГИКА ВХОДА С ПАМЯТЬЮ IP ---
-            String savedName = ChatServer.ipHistory.get(ip);
-            String prompt = "Enter name";
-            if (savedName != null) {
-                prompt += " (Press ENTER to use '" + savedName + "')";
-            }
-            out.println(prompt + ":");
+    private static String outcome(Throwable err) {
+        if (err == null) return "ok";
+        Throwable e = PluginExecutor.unwrap(err);
+        if (e instanceof RejectedExecutionException) return "rejected";
+        if (e instanceof TimeoutException) return "timeout";
+        return "error";
+    }
 
-            String inputName = in.readLine();
-            if (inputName == null) return;
+    private static final int MAX_HISTORY = 500;
 
-            // Если нажали Enter и есть сохраненный ник - берем его
-            if (inputName.trim().isEmpty() && savedName != null) {
-                username = savedName;
+    private void sendHistory(String arg) {
+        if (ChatServer.journal == null) { sendMessage("История недоступна."); return; }
+        int n = 20;
+        if (!arg.isEmpty()) {
+            try { n = Integer.parseInt(arg); } catch (NumberFormatException e) { sendMessage("Usage: #history N"); return; }
+        }
+        n = Math.max(1, Math.min(n, MAX_HISTORY));
+
+        String me = username, myRoom = room;
+        // Диск читается на потоке журнала, ответ приходит в очередь клиента оттуда же
+        ChatServer.journal.historyAsync(n, r -> r.kind == MessageJournal.PUBLIC
+                ? (r.room.equals(myRoom) || r.room.equals(MessageJournal.ALL_ROOMS))
+                : (r.from.equals(me) || r.to.equals(me) || r.to.equals(MessageJournal.ALL_ROOMS))
+        ).whenComplete((entries, err) -> {
+            if (err != null) sendMessage("❌ History error: " + err.getMessage());
+            else showHistory(entries);
+        });
+    }
+
+    private void showHistory(List<MessageJournal.Entry> entries) {
+        SimpleDateFormat fmt = new SimpleDateFormat("HH:mm:ss");
+        sendMessage("\u001B[36m--- History (" + entries.size() + ") ---\u001B[0m");
+        for (MessageJournal.Entry e : entries) {
+            String time = "[" + fmt.format(new Date(e.ref.time)) + "] ";
+            if (e.ref.kind == MessageJournal.PRIVATE) {
+                String to = e.ref.to.equals(MessageJournal.ALL_ROOMS) ? "all" : e.ref.to;
+                sendMessage(time + "\u001B[35m(Private) " + e.ref.from + " -> " + to + ": " + e.text + "\u001B[0m");
+            } else if ("System".equals(e.ref.from)) {
+                sendMessage(time + "\u001B[32m[SYSTEM] " + e.text + "\u001B[0m");
             } else {
-                username = inputName.trim();
-                if (username.isEmpty()) username = "User_" + (int)(Math.random()*1000);
+                sendMessage(time + e.text);
             }
+        }
+    }
 
-            // Запоминаем IP -> Ник
-            ChatServer.ipHistory.put(ip, username);
-            // ---------------------------------
-
-            ChatServer.broadcast(username + " joined.", "Server", true);
-            sendHelp();
+    @Override
+    public void run() {
+        try {
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            ChatServer.connectionPool.execute(this::writeLoop);
 
-            // --- ПРОВЕРКА ОФФЛАЙН ПОЧТЫ ---
-            if (ChatServer.offlineMessages.containsKey(username)) {
-                List<String> mail = ChatServer.offlineMessages.remove(username); // Забираем и удаляем
-                if (mail != null && !mail.isEmpty()) {
-                    sendMessage("\u001B[36m📬 У вас " + mail.size() + " новых оффлайн-сообщений:\u001B[0m");
-                    for (String m : mail) {
-                        sendMessage(m);
-                    }
-                }
-            }
-            // -----------------------------
+            onConnect();
 
             String message;
             while ((message = in.readLine()) != null) {
-                if (!message.isEmpty()) processMessage(message);
+                onLine(message);
             }
         } catch (IOException e) {
         } finally {
             try { socket.close(); } catch (Exception e) {}
-            ChatServer.clients.remove(this);
-            if (username != null) ChatServer.broadcast(username + " left.", "Server", true);
+            onDisconnect();
+        }
+    }
+
+    // Писатель для режима "поток на клиента": разгребает очередь, flush только когда она опустела
+    private void writeLoop() {
+        try {
+            OutputStream os = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+            WritableByteChannel ch = Channels.newChannel(os);
+            ByteBuffer b;
+            while ((b = outbound.take()) != null) {
+                long start = System.nanoTime();
+                while (b.hasRemaining()) ch.write(b);
+                if (outbound.size() == 0) os.flush();
+                Metrics.SOCKET_WRITE.recordSince(start);
+            }
+        } catch (IOException | InterruptedException e) {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    // --- Протокол не зависит от транспорта: и поток, и NIO-цикл зовут эти три метода ---
+
+    public void onConnect() {
+        Metrics.CONNECTIONS.increment();
+        // --- ЛОГИКА ВХОДА С ПАМЯТЬЮ IP ---
+        savedName = ChatServer.ipHistory.get(ip);
+        String prompt = "Enter name";
+        if (savedName != null) {
+            prompt += " (Press ENTER to use '" + savedName + "')";
+        }
+        sendMessage(prompt + ":");
+    }
+
+    public void onLine(String line) {
+        if (username == null) login(line);
+        else if (!line.isEmpty()) processMessage(line);
+    }
+
+    public void onDisconnect() {
+        outbound.close();
+        ChatServer.clients.remove(this);
+        ChatServer.sessionOffline(this);
+        if (username != null) ChatServer.leaveRoom(this);
+    }
+
+    private void login(String inputName) {
+        // Если нажали Enter и есть сохраненный ник - берем его
+        if (inputName.trim().isEmpty() && savedName != null) {
+            username = savedName;
+        } else {
+            username = inputName.trim();
+            if (username.isEmpty()) username = "User_" + (int)(Math.random()*1000);
+        }
+
+        // Запоминаем IP -> Ник
+        ChatServer.ipHistory.put(ip, username);
+        ChatServer.sessionOnline(this);
+        // ---------------------------------
+
+        ChatServer.joinRoom(this, ChatServer.DEFAULT_ROOM);
+        sendHelp("");
+
+        // --- ПРОВЕРКА ОФФЛАЙН ПОЧТЫ (диск — на потоке почты, не на цикле) ---
+        ChatServer.mailbox.drainAsync(username).whenComplete((mail, err) -> { // Забираем и удаляем
+            if (err != null) sendMessage("❌ Mailbox error: " + err.getMessage());
+            else showMail(mail);
+        });
+        // -----------------------------
+    }
+
+    void showMail(List<String> mail) {
+        if (mail.isEmpty()) return;
+        sendMessage("\u001B[36m📬 У вас " + mail.size() + " новых оффлайн-сообщений:\u001B[0m");
+        for (String m : mail) {
+            sendMessage(m);
         }
     }
 
@@ -106,7 +250,7 @@ public class ClientHandler implements Runnable {
             if (sp != -1) {
                 String target = msg.substring(1, sp);
                 String text = msg.substring(sp + 1);
-                ChatServer.sendPrivate(this, target, text);
+                MessagePipeline.submit(username, "@" + target, text, t -> ChatServer.sendPrivate(this, target, t));
             } else {
                 sendMessage("Usage: @user message");
             }
@@ -118,7 +262,7 @@ public class ClientHandler implements Runnable {
 
             switch (cmd) {
                 case "help":
-                    sendHelp();
+                    sendHelp(arg);
                     break;
                 case "block": // Черный список
                     blacklist.add(arg);
@@ -128,36 +272,61 @@ public class ClientHandler implements Runnable {
                     favorites.add(arg);
                     sendMessage("⭐ Пользователь " + arg + " добавлен в избранное");
                     break;
+                case "join":
+                    if (arg.isEmpty() || !arg.matches("[\\p{L}\\p{N}_-]{1,32}")) {
+                        sendMessage("Usage: #join room (буквы, цифры, _ и -, до 32 символов)");
+                    } else {
+                        ChatServer.joinRoom(this, arg);
+                    }
+                    break;
+                case "leave":
+                    if (ChatServer.DEFAULT_ROOM.equals(room)) sendMessage("Вы уже в #" + ChatServer.DEFAULT_ROOM + ".");
+                    else ChatServer.joinRoom(this, ChatServer.DEFAULT_ROOM);
+                    break;
+                case "rooms":
+                    StringBuilder sb = new StringBuilder("\u001B[36m--- Rooms ---\u001B[0m");
+                    for (Map.Entry<String, Set<ClientHandler>> e : ChatServer.rooms.entrySet()) {
+                        sb.append("\n#").append(e.getKey()).append(" (").append(e.getValue().size()).append(")");
+                        if (e.getKey().equals(room)) sb.append(" <- вы здесь");
+                    }
+                    sendMessage(sb.toString());
+                    break;
+                case "history":
+                    sendHistory(arg);
+                    break;
                 case "mass":  // Массовое ЛС
                     if (arg.isEmpty()) {
                         sendMessage("Usage: #mass text");
                     } else {
-                        // Формируем сообщение, которое выглядит как личное
-                        String fakePrivate = "\u001B[35m(Private) " + username + ": " + arg + "\u001B[0m";
-                        for (ClientHandler client : ChatServer.clients) {
-                            if (!client.blacklist.contains(username)) { // Уважаем чужой блок
-                                client.sendMessage(fakePrivate);
-                            }
-                        }
-                        sendMessage("📢 Массовое сообщение отправлено.");
+                        // Через фильтры, как обычные и @личные строки: комната для on_message — "*"
+                        String me = username;
+                        MessagePipeline.submit(me, MessageJournal.ALL_ROOMS, arg, t -> {
+                            ChatServer.deliverMass(me, t);
+                            Cluster.mass(me, t);
+                            sendMessage("📢 Массовое сообщение отправлено.");
+                        });
                     }
                     break;
                 default:
-                    // Проверка плагинов
-                    if (ChatServer.plugins.containsKey(cmd)) {
-                        try {
-                            String res = ChatServer.plugins.get(cmd).lib.handle_message(username, arg);
-                            ChatServer.broadcast(res, "System", true);
-                        } catch (Exception e) {
-                            sendMessage("Plugin Error: " + e.getMessage());
-                        }
+                    // Проверка плагинов: вызов уходит в пул плагина, ответ придет асинхронно
+                    LoadedPlugin plugin = ChatServer.plugins.get(cmd);
+                    if (plugin != null) {
+                        String myRoom = room;
+                        long start = System.nanoTime();
+                        plugin.call(username, arg).whenComplete((res, err) -> {
+                            Metrics.PLUGIN_CALL.labels(plugin.name).recordSince(start);
+                            Metrics.PLUGIN_CALLS.labels(plugin.name, outcome(err)).increment();
+                            if (err == null) ChatServer.broadcastRoom(myRoom, res, "System", true);
+                            else sendMessage(pluginError(plugin, err));
+                        });
                     } else {
                         sendMessage("Unknown command.");
                     }
             }
         } else {
-            // Обычное сообщение в чат
-            ChatServer.broadcast(username + ": " + msg, username, false);
+            // Обычное сообщение в чат (только своей комнате), через фильтры плагинов
+            String myRoom = room, me = username;
+            MessagePipeline.submit(me, myRoom, msg, t -> ChatServer.broadcastRoom(myRoom, me + ": " + t, me, false));
         }
     }
 }
\ No newline at end of file
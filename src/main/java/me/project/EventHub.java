@@ -0,0 +1,136 @@
+package me.project;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+События для админки (Server-Sent Events на /events, см. EventsHandler).
+Типы: system — системные сообщения чата (плагин загружен/выключен/удален, вход/выход);
+      chat — лента сообщений комнат, каждое chat.events.chatSample-е (0 — выключено, личка сюда не попадает);
+      plugins — список плагинов поменялся (админка перечитывает /list);
+      compile — задача сборки сменила состояние.
+publish() никогда не ждет браузер: у каждого подписчика своя очередь на chat.events.buffer событий и свой поток
+записи. Переполнилась — выкидываем самые старые, а подписчику потом приходит событие dropped с их числом.
+Подписчиков не больше chat.events.maxSubscribers.
+ */
+public final class EventHub {
+    public static final int BUFFER = Integer.getInteger("chat.events.buffer", 256);
+    public static final int MAX_SUBSCRIBERS = Integer.getInteger("chat.events.maxSubscribers", 32);
+    public static final int CHAT_SAMPLE = Integer.getInteger("chat.events.chatSample", 1);
+
+    private static final long PING_SECONDS = 15;
+
+    private static final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong ids = new AtomicLong();
+    private static final AtomicLong chatCounter = new AtomicLong();
+
+    private EventHub() {}
+
+    public static boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    // data — уже готовый JSON (одной строкой)
+    public static void publish(String type, String data) {
+        if (subscribers.isEmpty()) return;
+        byte[] frame = ("id: " + ids.incrementAndGet() + "\nevent: " + type + "\ndata: " + data + "\n\n")
+                .getBytes(StandardCharsets.UTF_8);
+        for (Subscriber s : subscribers) s.offer(frame);
+    }
+
+    public static void system(String room, String text) {
+        if (subscribers.isEmpty()) return;
+        publish("system", "{\"room\":" + json(room) + ", \"text\":" + json(text) + ", \"time\":" + System.currentTimeMillis() + "}");
+    }
+
+    public static void chat(String room, String from, String text) {
+        if (CHAT_SAMPLE <= 0 || subscribers.isEmpty()) return;
+        if (chatCounter.incrementAndGet() % CHAT_SAMPLE != 0) return;
+        publish("chat", "{\"room\":" + json(room) + ", \"from\":" + json(from) + ", \"text\":" + json(text)
+                + ", \"time\":" + System.currentTimeMillis() + "}");
+    }
+
+    // null — подписчиков уже слишком много
+    public static Subscriber subscribe(OutputStream out) {
+        if (subscribers.size() >= MAX_SUBSCRIBERS) return null;
+        Subscriber s = new Subscriber(out);
+        subscribers.add(s);
+        return s;
+    }
+
+    public static int subscribers() {
+        return subscribers.size();
+    }
+
+    public static class Subscriber implements Runnable {
+        private final OutputStream out;
+        private final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(Math.max(1, BUFFER));
+        private final AtomicLong dropped = new AtomicLong();
+
+        Subscriber(OutputStream out) {
+            this.out = out;
+        }
+
+        void offer(byte[] frame) {
+            while (!queue.offer(frame)) {
+                if (queue.poll() != null) dropped.incrementAndGet();
+            }
+        }
+
+        // Поток записи подписчика: блокируется только он сам, если браузер не успевает читать
+        @Override
+        public void run() {
+            List<byte[]> batch = new ArrayList<>();
+            try {
+                while (true) {
+                    byte[] first = queue.poll(PING_SECONDS, TimeUnit.SECONDS);
+                    if (first == null) {
+                        // Комментарий SSE: держит соединение живым и заодно замечает закрытую вкладку
+                        out.write(": ping\n\n".getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                        continue;
+                    }
+                    long lost = dropped.getAndSet(0);
+                    if (lost > 0) out.write(("event: dropped\ndata: {\"count\":" + lost + "}\n\n").getBytes(StandardCharsets.UTF_8));
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    for (byte[] f : batch) out.write(f);
+                    batch.clear();
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // Браузер ушел
+            } finally {
+                subscribers.remove(this);
+                try { out.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    public static String json(String s) {
+        if (s == null) return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,129 @@
+package me.project;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Текст #help, собранный заранее.
+Раньше каждый вход (и каждый #help) заново склеивал строку по всем плагинам — при массовом переподключении
+N клиентов делали одну и ту же работу N раз. Теперь страницы собираются и кодируются в UTF-8 один раз,
+после любого изменения набора плагинов (invalidate), а клиенты получают duplicate() общих буферов.
+invalidate только увеличивает поколение: снимок, который собирался в это время, помечен старым поколением
+и будет пересобран при следующем обращении, а не останется висеть со старым списком.
+Плагины идут по алфавиту, по chat.help.pageSize на страницу:
+    #help         — общие команды + первая страница плагинов (это же видно при входе)
+    #help 3       — третья страница
+    #help pre     — только команды, начинающиеся с "pre"
+ */
+public class HelpText {
+    public static final int PAGE_SIZE = Integer.getInteger("chat.help.pageSize", 50);
+
+    private static final String HEADER_COLOR = "\u001B[36m", RESET = "\u001B[0m";
+
+    private static final AtomicLong generation = new AtomicLong();
+    private static volatile Snapshot snapshot;
+
+    private static class Snapshot {
+        final long generation;                  // поколение, прочитанное до сбора списка
+        final TreeMap<String, String> commands; // имя -> описание, по алфавиту
+        final ByteBuffer[] pages;               // read-only, отдаются через duplicate()
+
+        Snapshot(long generation, TreeMap<String, String> commands, ByteBuffer[] pages) {
+            this.generation = generation;
+            this.commands = commands;
+            this.pages = pages;
+        }
+    }
+
+    // Набор плагинов изменился (загрузка, выключение, подмена версии)
+    public static void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    // Страница с номером page (с 1); null — нет такой страницы
+    public static ByteBuffer page(int page) {
+        ByteBuffer[] pages = current().pages;
+        return page >= 1 && page <= pages.length ? pages[page - 1].duplicate() : null;
+    }
+
+    public static int pages() {
+        return current().pages.length;
+    }
+
+    // Команды по префиксу — редкий запрос, собирается на месте
+    public static String filter(String prefix) {
+        Map<String, String> found = current().commands.subMap(prefix, prefix + Character.MAX_VALUE);
+        if (found.isEmpty()) return "Нет команд, начинающихся с #" + prefix + ".";
+        StringBuilder sb = new StringBuilder();
+        sb.append(HEADER_COLOR).append("--- Plugins: #").append(prefix).append("* (").append(found.size()).append(") ---").append(RESET).append("\n");
+        int shown = 0;
+        for (Map.Entry<String, String> e : found.entrySet()) {
+            if (shown++ == PAGE_SIZE) {
+                sb.append("... и еще ").append(found.size() - PAGE_SIZE).append(", уточните префикс\n");
+                break;
+            }
+            appendCommand(sb, e.getKey(), e.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static Snapshot current() {
+        Snapshot s = snapshot;
+        if (s != null && s.generation == generation.get()) return s;
+        synchronized (HelpText.class) {
+            long g = generation.get();
+            s = snapshot;
+            if (s == null || s.generation != g) snapshot = s = build(g);
+            return s;
+        }
+    }
+
+    private static Snapshot build(long generation) {
+        TreeMap<String, String> commands = new TreeMap<>();
+        for (LoadedPlugin p : ChatServer.plugins.values()) commands.put(p.name, p.description);
+
+        int total = Math.max(1, (commands.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+        List<ByteBuffer> pages = new ArrayList<>(total);
+        StringBuilder sb = new StringBuilder(base());
+        int i = 0, page = 1;
+        for (Map.Entry<String, String> e : commands.entrySet()) {
+            if (i % PAGE_SIZE == 0) {
+                if (i > 0) {
+                    pages.add(finish(sb, page++, total));
+                    sb = new StringBuilder();
+                }
+                sb.append(HEADER_COLOR).append("--- Plugins").append(total > 1 ? " (" + page + "/" + total + ")" : "").append(" ---").append(RESET).append("\n");
+            }
+            appendCommand(sb, e.getKey(), e.getValue());
+            i++;
+        }
+        pages.add(finish(sb, page, total));
+        return new Snapshot(generation, commands, pages.toArray(new ByteBuffer[0]));
+    }
+
+    private static String base() {
+        return HEADER_COLOR + "=== HELP ===" + RESET + "\n" +
+                "@user msg - Личное сообщение (или оффлайн)\n" +
+                "#mass msg - Массовое личное сообщение всем\n" +
+                "#block user - В черный список\n" +
+                "#fav user   - Любимый автор (подсветка)\n" +
+                "#join room  - Перейти в комнату\n" +
+                "#leave      - Вернуться в #" + ChatServer.DEFAULT_ROOM + "\n" +
+                "#rooms      - Список комнат\n" +
+                "#history N  - Последние N сообщений комнаты и вашей лички\n" +
+                "#help N / #help префикс - Страница N списка плагинов / поиск команды\n";
+    }
+
+    private static ByteBuffer finish(StringBuilder sb, int page, int total) {
+        if (page < total) sb.append("Дальше: #help ").append(page + 1).append(" (или #help префикс)\n");
+        return ClientHandler.encodeShared(sb.toString());
+    }
+
+    private static void appendCommand(StringBuilder sb, String name, String description) {
+        sb.append("#").append(name).append(" -> ").append(description).append("\n");
+    }
+}
@@ -0,0 +1,418 @@
+package me.project;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Генератор нагрузки: много "ChatClient" в одном процессе, без потока на соединение.
+    java -cp chat_dll-1.0-SNAPSHOT.jar -Dchat.load.clients=20000 -Dchat.load.rate=5000 me.project.LoadGenerator
+1. Соединения: chat.load.loops циклов Selector (по умолчанию по числу ядер), соединения раздаются по кругу.
+   Открываются постепенно, chat.load.connectRate в секунду, чтобы не упереться в backlog сервера.
+   Каждое входит под своим именем (chat.load.prefix + номер) и, если chat.load.rooms > 1, переходит в свою комнату.
+2. Трафик: один поток-планировщик держит общий темп chat.load.rate сообщений в секунду и выбирает вид по весам
+   chat.load.mix (по умолчанию "broadcast=80,dm=15,plugin=5,mass=0"):
+       broadcast — обычная строка в комнату;   dm — @user случайному вошедшему соединению;
+       mass      — #mass (всем, тяжело!);      plugin — #<chat.load.plugin> (по умолчанию echo).
+   Отправитель — случайное соединение, которое уже вошло.
+3. Задержка доставки: в каждое сообщение вшит маркер LG:<вид>:<System.nanoTime()>. Получатели в этом же процессе,
+   поэтому часы общие: задержка = время прихода строки - метка. Считается по каждой доставленной копии
+   (broadcast в комнату на 1000 человек — 1000 замеров). Для plugin — только если плагин возвращает текст аргумента.
+4. Отчет: каждые chat.load.report секунд — соединения, отправлено/доставлено и p50/p90/p99/p99.9/max за интервал;
+   в конце — то же за весь прогон (chat.load.duration секунд).
+ */
+public class LoadGenerator {
+    private static final String HOST = System.getProperty("chat.load.host", "127.0.0.1");
+    private static final int PORT = Integer.getInteger("chat.load.port", 8888);
+    private static final int CLIENTS = Integer.getInteger("chat.load.clients", 1000);
+    private static final int RATE = Integer.getInteger("chat.load.rate", 1000);
+    private static final int DURATION = Integer.getInteger("chat.load.duration", 60);
+    private static final int CONNECT_RATE = Integer.getInteger("chat.load.connectRate", 2000);
+    private static final int ROOMS = Integer.getInteger("chat.load.rooms", 1);
+    private static final int LOOPS = Integer.getInteger("chat.load.loops", Runtime.getRuntime().availableProcessors());
+    private static final int REPORT = Integer.getInteger("chat.load.report", 5);
+    private static final String PREFIX = System.getProperty("chat.load.prefix", "load");
+    private static final String PLUGIN = System.getProperty("chat.load.plugin", "echo");
+    private static final String MIX = System.getProperty("chat.load.mix", "broadcast=80,dm=15,plugin=5,mass=0");
+
+    private static final int MAX_LINE = 64 * 1024;
+    private static final byte[] MARKER = "LG:".getBytes(StandardCharsets.UTF_8);
+
+    // Виды трафика: индекс = позиция в KINDS, в маркере — первая буква
+    private static final String[] KINDS = {"broadcast", "dm", "mass", "plugin"};
+    private static final int BROADCAST = 0, DM = 1, MASS = 2, PLUGIN_CALL = 3;
+
+    private final Conn[] conns = new Conn[CLIENTS];
+    private final Loop[] loops = new Loop[Math.max(1, LOOPS)];
+    private final int[] weights = new int[KINDS.length];
+
+    private final LongAdder connected = new LongAdder();
+    private final LongAdder ready = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder[] sent = adders(), received = adders();
+    private final LongAdder skipped = new LongAdder(); // не было вошедших соединений
+    private final Metrics.Histogram[] total = histograms();
+    private final AtomicReference<Metrics.Histogram[]> interval = new AtomicReference<>(histograms());
+    private final AtomicLong seq = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator().run();
+    }
+
+    private void run() throws Exception {
+        parseMix();
+        System.out.println("[Load] " + CLIENTS + " clients -> " + HOST + ":" + PORT + ", " + RATE + " msg/s for " + DURATION
+                + " s, mix " + MIX + ", " + ROOMS + " room(s), " + loops.length + " loop(s)");
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new Loop("load-loop-" + i);
+            loops[i].thread.start();
+        }
+
+        Thread connector = new Thread(this::connectAll, "load-connector");
+        connector.setDaemon(true);
+        connector.start();
+
+        long start = System.nanoTime();
+        long end = start + DURATION * 1_000_000_000L;
+        long nextReport = start + REPORT * 1_000_000_000L;
+        long due = 0; // сколько сообщений уже должно было уйти
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= end) break;
+            long should = (now - start) * RATE / 1_000_000_000L;
+            for (; due < should; due++) sendOne();
+            if (now >= nextReport) {
+                report("last " + REPORT + " s", interval.getAndSet(histograms()));
+                nextReport += REPORT * 1_000_000_000L;
+            }
+            Thread.sleep(1);
+        }
+        Thread.sleep(1000); // дать дойти последним сообщениям
+        report("total " + DURATION + " s", total);
+        System.exit(0);
+    }
+
+    private void parseMix() {
+        for (String part : MIX.split(",")) {
+            String[] kv = part.trim().split("=");
+            if (kv.length != 2) throw new IllegalArgumentException("Bad chat.load.mix entry: " + part);
+            int k = Arrays.asList(KINDS).indexOf(kv[0].trim());
+            if (k < 0) throw new IllegalArgumentException("Unknown traffic kind: " + kv[0] + " (broadcast, dm, mass, plugin)");
+            weights[k] = Integer.parseInt(kv[1].trim());
+        }
+        int sum = 0;
+        for (int w : weights) sum += w;
+        if (sum <= 0) throw new IllegalArgumentException("chat.load.mix has no positive weights");
+    }
+
+    private void connectAll() {
+        InetSocketAddress addr = new InetSocketAddress(HOST, PORT);
+        long start = System.nanoTime();
+        for (int i = 0; i < CLIENTS; i++) {
+            // Не быстрее CONNECT_RATE в секунду
+            long at = start + (long) i * 1_000_000_000L / Math.max(1, CONNECT_RATE);
+            long wait = at - System.nanoTime();
+            if (wait > 0) {
+                try { Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000)); } catch (InterruptedException e) { return; }
+            }
+            Conn c = new Conn(i, loops[i % loops.length]);
+            conns[i] = c;
+            try {
+                SocketChannel ch = SocketChannel.open();
+                ch.configureBlocking(false);
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                ch.connect(addr);
+                c.ch = ch;
+                c.loop.register(c);
+            } catch (IOException e) {
+                failed.increment();
+            }
+        }
+    }
+
+    // --- Планировщик ---
+
+    private void sendOne() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        Conn from = pickReady(rnd);
+        if (from == null) { skipped.increment(); return; }
+        int kind = pickKind(rnd);
+        String mark = "LG:" + KINDS[kind].charAt(0) + ":" + System.nanoTime();
+        String line;
+        switch (kind) {
+            case DM:
+                Conn to = pickReady(rnd);
+                if (to == null) { skipped.increment(); return; }
+                line = "@" + to.name + " " + mark;
+                break;
+            case MASS:
+                line = "#mass " + mark;
+                break;
+            case PLUGIN_CALL:
+                line = "#" + PLUGIN + " " + mark;
+                break;
+            default:
+                line = "msg " + seq.incrementAndGet() + " " + mark;
+        }
+        sent[kind].increment();
+        from.send(line);
+    }
+
+    private Conn pickReady(ThreadLocalRandom rnd) {
+        for (int attempt = 0; attempt < 8; attempt++) {
+            Conn c = conns[rnd.nextInt(CLIENTS)];
+            if (c != null && c.ready && !c.closed) return c;
+        }
+        return null;
+    }
+
+    private int pickKind(ThreadLocalRandom rnd) {
+        int sum = 0;
+        for (int w : weights) sum += w;
+        int r = rnd.nextInt(sum);
+        for (int k = 0; k < weights.length; k++) {
+            r -= weights[k];
+            if (r < 0) return k;
+        }
+        return BROADCAST;
+    }
+
+    // --- Соединение ---
+
+    private final class Conn {
+        final int index;
+        final String name;
+        final Loop loop;
+        final byte[] joined; // "<name> joined #" — значит, сервер нас впустил
+        final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean writeRequested = new AtomicBoolean();
+        SocketChannel ch;
+        SelectionKey key;
+        ByteBuffer pending; // недописанный буфер, только поток цикла
+        byte[] line = new byte[256];
+        int lineLen;
+        volatile boolean ready;
+        volatile boolean closed;
+
+        Conn(int index, Loop loop) {
+            this.index = index;
+            this.name = PREFIX + index;
+            this.loop = loop;
+            this.joined = (name + " joined #").getBytes(StandardCharsets.UTF_8);
+        }
+
+        void send(String s) {
+            out.add(ByteBuffer.wrap((s + "\n").getBytes(StandardCharsets.UTF_8)));
+            if (writeRequested.compareAndSet(false, true)) loop.requestWrite(this);
+        }
+
+        void onConnected() {
+            connected.increment();
+            send(name);
+            if (ROOMS > 1) send("#join r" + (index % ROOMS));
+        }
+
+        // Строка целиком (без \n); строки декодировать не нужно — ищем только байты маркера
+        void onLine(byte[] b, int len, long now) {
+            if (!ready && indexOf(b, len, joined, 0) >= 0) {
+                // При нескольких комнатах готовы только после перехода в свою
+                if (ROOMS <= 1 || indexOf(b, len, ("#r" + (index % ROOMS)).getBytes(StandardCharsets.UTF_8), 0) >= 0) {
+                    ready = true;
+                    LoadGenerator.this.ready.increment();
+                }
+            }
+            int at = indexOf(b, len, MARKER, 0);
+            if (at < 0 || at + MARKER.length + 2 >= len) return;
+            int kind = kindOf(b[at + MARKER.length]);
+            if (kind < 0) return;
+            long t = 0;
+            int i = at + MARKER.length + 2;
+            for (; i < len && b[i] >= '0' && b[i] <= '9'; i++) t = t * 10 + (b[i] - '0');
+            if (i == at + MARKER.length + 2) return;
+            received[kind].increment();
+            total[kind].record(now - t);
+            interval.get()[kind].record(now - t);
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            if (ready) LoadGenerator.this.ready.decrement();
+            LoadGenerator.this.closed.increment();
+            if (key != null) key.cancel();
+            try { ch.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private static int kindOf(byte c) {
+        for (int k = 0; k < KINDS.length; k++) if (KINDS[k].charAt(0) == c) return k;
+        return -1;
+    }
+
+    private static int indexOf(byte[] b, int len, byte[] what, int from) {
+        outer:
+        for (int i = from; i <= len - what.length; i++) {
+            for (int j = 0; j < what.length; j++) if (b[i + j] != what[j]) continue outer;
+            return i;
+        }
+        return -1;
+    }
+
+    // --- Цикл Selector (как EventLoop сервера, только для клиентских каналов) ---
+
+    private final class Loop implements Runnable {
+        final Thread thread;
+        final Selector selector;
+        final Queue<Conn> pendingConns = new ConcurrentLinkedQueue<>();
+        final Queue<Conn> pendingWrites = new ConcurrentLinkedQueue<>();
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+        Loop(String name) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        void register(Conn c) {
+            pendingConns.add(c);
+            selector.wakeup();
+        }
+
+        void requestWrite(Conn c) {
+            pendingWrites.add(c);
+            if (Thread.currentThread() != thread) selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    Conn c;
+                    while ((c = pendingConns.poll()) != null) {
+                        try {
+                            c.key = c.ch.register(selector, SelectionKey.OP_CONNECT, c);
+                        } catch (IOException e) {
+                            failed.increment();
+                            c.close();
+                        }
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        c = (Conn) key.attachment();
+                        if (!key.isValid()) { c.close(); continue; }
+                        if (key.isConnectable()) finishConnect(c);
+                        else {
+                            if (key.isReadable()) read(c);
+                            if (key.isValid() && key.isWritable()) flush(c);
+                        }
+                    }
+                    while ((c = pendingWrites.poll()) != null) flush(c);
+                } catch (Exception e) {
+                    System.err.println("[Load] " + thread.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+
+        private void finishConnect(Conn c) {
+            try {
+                if (!c.ch.finishConnect()) return;
+                c.key.interestOps(SelectionKey.OP_READ);
+                c.onConnected();
+            } catch (IOException e) {
+                failed.increment();
+                c.close();
+            }
+        }
+
+        private void read(Conn c) {
+            try {
+                readBuffer.clear();
+                int n = c.ch.read(readBuffer);
+                if (n < 0) { c.close(); return; }
+                readBuffer.flip();
+                long now = System.nanoTime();
+                while (readBuffer.hasRemaining()) {
+                    byte b = readBuffer.get();
+                    if (b == '\n') {
+                        c.onLine(c.line, c.lineLen, now);
+                        c.lineLen = 0;
+                    } else if (c.lineLen < MAX_LINE) {
+                        if (c.lineLen == c.line.length) c.line = Arrays.copyOf(c.line, Math.min(MAX_LINE, c.line.length * 2));
+                        c.line[c.lineLen++] = b;
+                    }
+                }
+            } catch (IOException e) {
+                c.close();
+            }
+        }
+
+        private void flush(Conn c) {
+            if (c.closed || c.key == null || !c.key.isValid() || c.ch.isConnectionPending()) return;
+            c.writeRequested.set(false);
+            try {
+                while (true) {
+                    if (c.pending == null) c.pending = c.out.poll();
+                    if (c.pending == null) break;
+                    c.ch.write(c.pending);
+                    if (c.pending.hasRemaining()) break; // сокет забит — ждем OP_WRITE
+                    c.pending = null;
+                }
+            } catch (IOException e) {
+                c.close();
+                return;
+            }
+            int ops = c.key.interestOps();
+            if (c.pending == null) c.key.interestOps(ops & ~SelectionKey.OP_WRITE);
+            else c.key.interestOps(ops | SelectionKey.OP_WRITE);
+        }
+    }
+
+    // --- Отчет ---
+
+    private void report(String title, Metrics.Histogram[] h) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("[Load] %s: connected %d, ready %d, failed %d, closed %d, skipped %d%n",
+                title, connected.sum(), ready.sum(), failed.sum(), closed.sum(), skipped.sum()));
+        for (int k = 0; k < KINDS.length; k++) {
+            if (weights[k] == 0) continue;
+            sb.append(String.format("    %-9s sent %9d  delivered %10d  (%d in window)  p50 %s  p90 %s  p99 %s  p99.9 %s  max %s%n",
+                    KINDS[k], sent[k].sum(), received[k].sum(), h[k].count(),
+                    ms(h[k].quantile(0.5)), ms(h[k].quantile(0.9)), ms(h[k].quantile(0.99)), ms(h[k].quantile(0.999)), ms(h[k].max())));
+        }
+        System.out.print(sb);
+    }
+
+    private static String ms(long nanos) {
+        return String.format("%.2fms", nanos / 1e6);
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] a = new LongAdder[KINDS.length];
+        for (int i = 0; i < a.length; i++) a[i] = new LongAdder();
+        return a;
+    }
+
+    private static Metrics.Histogram[] histograms() {
+        Metrics.Histogram[] h = new Metrics.Histogram[KINDS.length];
+        for (int i = 0; i < h.length; i++) h[i] = new Metrics.Histogram();
+        return h;
+    }
+}
@@ -1,16 +1,68 @@
 package me.project;
 
+import me.project.plugin.BufferCall;
+import me.project.plugin.NativeLibs;
+import me.project.plugin.PluginBatcher;
+import me.project.plugin.PluginExecutor;
+import me.project.plugin.RemotePlugin;
+import me.project.plugin.ResultCache;
+
 import java.io.File; // <-- Обязательно этот импорт
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/*
+Одна загруженная версия плагина.
+Слот ChatServer.plugins хранит текущую версию для команды; при перезагрузке новая версия подменяет старую
+одним put, а старая "уходит на пенсию" (retire). Каждый вызов держит ссылку (acquire/release) на свою версию,
+пока нативный код реально работает. Когда ссылок не осталось — пул останавливается, библиотека
+выгружается из процесса (dispose) и копия loaded_copy_... удаляется.
+Ленивая заглушка (lib == null): при старте команда регистрируется по .txt рядом с библиотекой, а сама
+библиотека загружается при первом вызове и встает в слот вместо заглушки.
+Если плагин экспортирует cache_ttl() > 0, одинаковые вызовы в пределах ttl отвечаются из ResultCache этой версии.
+Если экспортирует on_message — версия становится фильтром строк чата в MessagePipeline (intercept).
+ */
 public class LoadedPlugin {
+    private static final AtomicInteger VERSIONS = new AtomicInteger();
+
     public PluginInterface lib;
     public String name;
     public String description;
     public String filename;
+    public final int version = VERSIONS.incrementAndGet();
 
     // 👇 ВОТ ЭТОГО ПОЛЯ НЕ ХВАТАЛО
     public File tempFile;
 
+    // Свой пул с очередью и дедлайном: нативный код не выполняется на потоках чата
+    public PluginExecutor executor;
+
+    // handle_message_buf, если плагин его экспортирует (null — старый ABI)
+    public BufferCall bufferCall;
+
+    // handle_batch, если плагин его экспортирует: вызовы копятся в пачки
+    public PluginBatcher batcher;
+
+    // Кэш ответов, если плагин объявил себя чистым (cache_ttl > 0), иначе null
+    public ResultCache cache;
+
+    // Экспортирует on_message: фильтр каждой строки чата, phase — его фаза в MessagePipeline
+    public boolean hook;
+    public int phase;
+
+    // 1 — ссылка из слота plugins, плюс по одной на каждый незаконченный вызов
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    // Только у заглушки: загрузка настоящей версии (одна на все вызовы)
+    private CompletableFuture<LoadedPlugin> activation;
+
+    // Заглушка для команды, про которую все известно из .txt, а библиотека еще не загружена
+    public LoadedPlugin(String name, String description, String filename) {
+        this.name = name;
+        this.description = description;
+        this.filename = filename;
+    }
+
     // Обновленный конструктор принимает 3 аргумента
     public LoadedPlugin(PluginInterface lib, String filename, File tempFile) {
         this.lib = lib;
@@ -23,5 +75,120 @@ public class LoadedPlugin {
 
         if (this.name == null) this.name = "null";
         if (this.description == null) this.description = "-";
+
+        int ttl = NativeLibs.optional(lib::cache_ttl);
+        if (ttl > 0) this.cache = new ResultCache(ttl, NativeLibs.optional(lib::cache_per_sender) != 0);
+
+        this.hook = lib instanceof RemotePlugin ? ((RemotePlugin) lib).hasHook() : NativeLibs.has(lib, "on_message");
+        if (hook) this.phase = NativeLibs.optional(lib::on_message_phase);
+
+        this.bufferCall = BufferCall.bind(lib);
+        this.executor = new PluginExecutor(this.name);
+        this.batcher = PluginBatcher.bind(lib, executor);
+        if (!(lib instanceof RemotePlugin)) this.executor.warm(); // удаленным вызовам потоки пула не нужны
+    }
+
+    public CompletableFuture<String> call(String sender, String text) {
+        if (lib == null) return activate().thenCompose(p -> p.call(sender, text));
+        ResultCache c = cache;
+        if (c == null) return invoke(sender, text);
+        String key = c.key(sender, text);
+        String hit = c.get(key);
+        if (hit != null) return CompletableFuture.completedFuture(hit);
+        return invoke(sender, text).thenApply(res -> {
+            c.put(key, res);
+            return res;
+        });
+    }
+
+    private CompletableFuture<String> invoke(String sender, String text) {
+        if (!acquire()) {
+            // Эту версию как раз подменили — вызов уходит в текущую
+            LoadedPlugin current = ChatServer.plugins.get(name);
+            if (current != null && current != this) return current.invoke(sender, text);
+            return CompletableFuture.failedFuture(new IllegalStateException("Плагин #" + name + " выключен"));
+        }
+        if (lib instanceof RemotePlugin) return executor.submitAsync(() -> ((RemotePlugin) lib).call(sender, text), this::release);
+        if (batcher != null) return batcher.submit(sender, text, this::release);
+        BufferCall bc = bufferCall;
+        if (bc != null) return executor.submit(() -> bc.call(sender, text), this::release);
+        return executor.submit(() -> lib.handle_message(sender, text), this::release);
+    }
+
+    // on_message в пуле плагина, мимо кэша и пачек: каждая строка чата уникальна.
+    // null — пропустить, "" — выбросить, иначе новый текст
+    public CompletableFuture<String> intercept(String sender, String room, String text) {
+        if (!acquire()) {
+            LoadedPlugin current = ChatServer.plugins.get(name);
+            if (current != null && current != this && current.hook) return current.intercept(sender, room, text);
+            return CompletableFuture.completedFuture(null); // фильтр выключили — пропускаем
+        }
+        if (lib instanceof RemotePlugin) return executor.submitAsync(() -> ((RemotePlugin) lib).hook(sender, room, text), this::release);
+        return executor.submit(() -> lib.on_message(sender, room, text), this::release);
+    }
+
+    public boolean isLoaded() {
+        return lib != null;
+    }
+
+    public long timeoutMs() {
+        return executor != null ? executor.timeoutMs() : PluginExecutor.TIMEOUT_MS;
+    }
+
+    // Загрузка из заглушки идет в пуле загрузчика, не на потоке клиента / цикле NIO
+    private synchronized CompletableFuture<LoadedPlugin> activate() {
+        if (activation == null) {
+            activation = CompletableFuture.supplyAsync(() -> {
+                LoadedPlugin p = ChatServer.activatePlugin(this);
+                if (p == null) throw new IllegalStateException("Не удалось загрузить плагин #" + name);
+                return p;
+            }, ChatServer.pluginLoader);
+            // Неудачу не запоминаем: следующий вызов попробует еще раз
+            activation.whenComplete((p, err) -> {
+                if (err != null) synchronized (this) { activation = null; }
+            });
+        }
+        return activation;
+    }
+
+    private boolean acquire() {
+        while (true) {
+            int r = refs.get();
+            if (r <= 0) return false;
+            if (refs.compareAndSet(r, r + 1)) return true;
+        }
+    }
+
+    private void release() {
+        if (refs.decrementAndGet() == 0) dispose();
+    }
+
+    // Версия убрана из слота (подменена или выключена). Вызывается один раз тем, кто ее убрал
+    public void retire() {
+        if (cache != null) cache.clear();
+        if (batcher != null) batcher.flush();
+        release();
+    }
+
+    public int inFlight() {
+        return Math.max(0, refs.get() - 1);
+    }
+
+    // Последний вызов закончился: останавливаем пул, выгружаем библиотеку и удаляем ее копию
+    private void dispose() {
+        if (lib == null) return; // заглушка: выгружать нечего
+        executor.shutdown();
+        if (lib instanceof RemotePlugin) ((RemotePlugin) lib).unload();
+        else {
+            if (bufferCall != null) bufferCall.close();
+            NativeLibs.dispose(lib);
+        }
+
+        if (tempFile != null && tempFile.exists() && !tempFile.delete()) {
+            File trash = new File(tempFile.getParent(), tempFile.getName() + ".trash");
+            tempFile.renameTo(trash);
+            trash.deleteOnExit();
+        }
+        System.out.println(" [~] Disposed #" + name + " v" + version);
     }
-}
\ No newline at end of file
+}
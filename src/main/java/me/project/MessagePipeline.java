@@ -0,0 +1,150 @@
+package me.project;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/*
+Фильтры строк чата между ClientHandler.processMessage и рассылкой (broadcastRoom / sendPrivate / deliverMass).
+Фильтр — любой плагин, который экспортирует on_message (см. api.h).
+1. Фильтры группируются по фазам (on_message_phase, по возрастанию). Все фильтры одной фазы получают один и тот же
+   текст и работают одновременно, каждый в своем пуле, — десять независимых фильтров стоят как самый медленный из них,
+   а не как их сумма. Фазы идут одна за другой: следующая видит текст, исправленный предыдущей.
+2. Итог фазы: хоть один фильтр вернул "" — сообщение выброшено, остальные фазы не запускаются (и ответа
+   остальных фильтров фазы не ждем). Иначе из замен берется первая по имени плагина.
+3. Порядок: сообщения одного отправителя доставляются в том порядке, в котором он их написал, даже если
+   фильтры ответили на второе раньше первого. Разные отправители друг друга не ждут.
+4. Ошибка, отказ пула или таймаут фильтра (chat.plugin.timeoutMs) — сообщение идет дальше как есть:
+   упавший фильтр не должен глушить чат.
+Без фильтров и без незаконченных сообщений отправителя доставка идет сразу, на том же потоке.
+Набор фильтров собирается один раз после изменения набора плагинов (invalidate). Как и в HelpText, invalidate
+увеличивает поколение, и набор, собранный одновременно с изменением, при следующем сообщении пересобирается.
+ */
+public final class MessagePipeline {
+    public static final LongAdder filtered = new LongAdder();
+    public static final LongAdder dropped = new LongAdder();
+    public static final LongAdder rewritten = new LongAdder();
+    public static final LongAdder failedOpen = new LongAdder();
+
+    private static final LoadedPlugin[][] NONE = new LoadedPlugin[0][];
+
+    private static final AtomicLong generation = new AtomicLong();
+    private static volatile Phases phases;
+
+    private static class Phases {
+        final long generation;
+        final LoadedPlugin[][] stages;
+
+        Phases(long generation, LoadedPlugin[][] stages) {
+            this.generation = generation;
+            this.stages = stages;
+        }
+    }
+
+    // Отправитель -> доставка его последнего сообщения; запись убирает тот, чье сообщение было последним
+    private static final Map<String, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+    private MessagePipeline() {}
+
+    public static void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    // deliver получает итоговый текст (не вызывается, если сообщение выброшено)
+    public static void submit(String sender, String room, String text, Consumer<String> deliver) {
+        LoadedPlugin[][] stages = current();
+        if (stages.length == 0 && !tails.containsKey(sender)) {
+            deliver.accept(text);
+            return;
+        }
+
+        if (stages.length > 0) filtered.increment();
+        CompletableFuture<Void> mine = new CompletableFuture<>();
+        CompletableFuture<Void> prev = tails.put(sender, mine);
+        // Фильтры запускаем сразу, ждем предыдущее сообщение только с доставкой
+        CompletableFuture<String> result = run(stages, 0, sender, room, text);
+        CompletableFuture<?> before = prev != null ? prev : CompletableFuture.completedFuture(null);
+        before.thenCombine(result, (v, res) -> res).whenComplete((res, err) -> {
+            try {
+                if (res != null) deliver.accept(res);
+            } finally {
+                tails.remove(sender, mine);
+                mine.complete(null);
+            }
+        });
+    }
+
+    // null — сообщение выброшено
+    private static CompletableFuture<String> run(LoadedPlugin[][] stages, int phase, String sender, String room, String text) {
+        if (phase == stages.length) return CompletableFuture.completedFuture(text);
+        LoadedPlugin[] filters = stages[phase];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        CompletableFuture<String>[] answers = new CompletableFuture[filters.length];
+        CompletableFuture<String> outcome = new CompletableFuture<>();
+        AtomicInteger left = new AtomicInteger(filters.length);
+
+        for (int i = 0; i < filters.length; i++) {
+            LoadedPlugin f = filters[i];
+            CompletableFuture<String> a;
+            try {
+                a = f.intercept(sender, room, text);
+            } catch (Throwable e) {
+                a = CompletableFuture.failedFuture(e);
+            }
+            answers[i] = a.exceptionally(err -> {
+                failedOpen.increment();
+                return null;
+            });
+            answers[i].thenAccept(res -> {
+                if (res != null && res.isEmpty()) {
+                    if (outcome.complete(null)) dropped.increment();
+                } else if (left.decrementAndGet() == 0 && !outcome.isDone()) {
+                    outcome.complete(merge(answers, text));
+                }
+            });
+        }
+        return outcome.thenCompose(res -> res == null ? CompletableFuture.completedFuture(null)
+                : run(stages, phase + 1, sender, room, res));
+    }
+
+    // Все ответы фазы уже есть и выбрасывать никто не просил: первая замена по имени плагина
+    private static String merge(CompletableFuture<String>[] answers, String text) {
+        for (CompletableFuture<String> a : answers) {
+            String res = a.join();
+            if (res != null && !res.isEmpty()) {
+                if (!res.equals(text)) rewritten.increment();
+                return res;
+            }
+        }
+        return text;
+    }
+
+    private static LoadedPlugin[][] current() {
+        Phases p = phases;
+        if (p != null && p.generation == generation.get()) return p.stages;
+        synchronized (MessagePipeline.class) {
+            long g = generation.get();
+            p = phases;
+            if (p == null || p.generation != g) phases = p = new Phases(g, build());
+            return p.stages;
+        }
+    }
+
+    private static LoadedPlugin[][] build() {
+        TreeMap<Integer, TreeMap<String, LoadedPlugin>> byPhase = new TreeMap<>();
+        for (LoadedPlugin p : ChatServer.plugins.values()) {
+            if (p.isLoaded() && p.hook) byPhase.computeIfAbsent(p.phase, k -> new TreeMap<>()).put(p.name, p);
+        }
+        if (byPhase.isEmpty()) return NONE;
+        List<LoadedPlugin[]> out = new ArrayList<>();
+        for (TreeMap<String, LoadedPlugin> filters : byPhase.values()) out.add(filters.values().toArray(new LoadedPlugin[0]));
+        return out.toArray(new LoadedPlugin[0][]);
+    }
+}
@@ -0,0 +1,265 @@
+package me.project;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/*
+Метрики сервера для /metrics (текстовый формат Prometheus, см. MetricsHandler).
+Горячий путь ничего не блокирует и не выделяет:
+    счетчики — LongAdder (полосатые ячейки, потоки не дерутся за одну кэш-линию);
+    гистограммы задержек — логарифмические корзины в духе HdrHistogram: на каждую степень двойки наносекунд
+        8 корзин (точность ~12%), запись — один incrementAndGet в AtomicLongArray, без блокировок.
+        Наружу отдаются накопленные корзины с фиксированными границами le (в секундах), _sum и _count.
+Серии с метками (например, plugin="echo") создаются при первом обращении и дальше берутся из карты.
+Все семейства объявлены здесь, чтобы список метрик был виден в одном месте.
+ */
+public final class Metrics {
+    private static final Map<String, Family<?>> families = new ConcurrentHashMap<>();
+    private static final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    // --- Соединения и рассылка ---
+    public static final LongAdder CONNECTIONS = counter("chat_connections_total", "Принятые соединения чата").labels();
+    public static final Family<Histogram> BROADCAST = histogram("chat_broadcast_seconds",
+            "Рассылка одного сообщения всем получателям (кодирование + постановка в очереди)", "scope");
+    public static final LongAdder RECIPIENTS = counter("chat_broadcast_recipients_total",
+            "Сколько копий сообщений поставлено в очереди клиентов").labels();
+    public static final Histogram PRIVATE = histogram("chat_private_seconds", "Доставка одного личного сообщения").labels();
+    public static final Family<LongAdder> PRIVATES = counter("chat_private_total", "Личные сообщения по исходу", "delivery");
+    public static final Histogram SOCKET_WRITE = histogram("chat_socket_write_seconds",
+            "Одна запись (пачка буферов) в сокет клиента").labels();
+    public static final LongAdder OUTBOUND_DROPPED = counter("chat_outbound_dropped_total",
+            "Сообщения, выброшенные из переполненных очередей медленных клиентов").labels();
+
+    // --- Плагины ---
+    public static final Family<Histogram> PLUGIN_CALL = histogram("chat_plugin_call_seconds",
+            "Команда плагина от вызова до ответа (очередь пула + нативный код)", "plugin");
+    public static final Family<LongAdder> PLUGIN_CALLS = counter("chat_plugin_calls_total", "Вызовы команд плагинов по исходу", "plugin", "result");
+    public static final Histogram PLUGIN_LOAD = histogram("chat_plugin_load_seconds", "Загрузка библиотеки плагина (loadPluginSafe)").labels();
+    public static final Family<LongAdder> PLUGIN_LOADS = counter("chat_plugin_loads_total", "Загрузки плагинов по исходу", "result");
+    public static final Histogram COMPILE = histogram("chat_compile_seconds", "Сборка плагина g++ (без попаданий в кэш)").labels();
+    public static final Family<LongAdder> COMPILES = counter("chat_compile_total", "Задачи сборки по исходу", "result");
+
+    // --- Кластер ---
+    public static final Family<LongAdder> CLUSTER_SENT = counter("chat_cluster_sent_total", "Сообщения другим узлам по типу", "type");
+    public static final Family<LongAdder> CLUSTER_RECEIVED = counter("chat_cluster_received_total", "Сообщения от других узлов по типу", "type");
+    public static final LongAdder CLUSTER_BATCHES = counter("chat_cluster_batches_total",
+            "Записи в линии между узлами (одна запись — пачка сообщений и один flush)").labels();
+    public static final LongAdder CLUSTER_DROPPED = counter("chat_cluster_dropped_total",
+            "Сообщения, выброшенные из-за переполненной очереди линии").labels();
+
+    // Границы корзин для вывода, в секундах
+    private static final double[] LE = {
+            0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005,
+            0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+    };
+    private static final String[] LE_TEXT = Arrays.stream(LE).mapToObj(d -> BigDecimal.valueOf(d).stripTrailingZeros().toPlainString()).toArray(String[]::new);
+
+    private Metrics() {}
+
+    public static Family<LongAdder> counter(String name, String help, String... labels) {
+        return register(new Family<>(name, help, "counter", labels, LongAdder::new));
+    }
+
+    public static Family<Histogram> histogram(String name, String help, String... labels) {
+        return register(new Family<>(name, help, "histogram", labels, Histogram::new));
+    }
+
+    // Значение, которое считается в момент запроса (число клиентов, размер очереди и т.п.)
+    public static void gauge(String name, String help, LongSupplier value) {
+        gauges.put(name, new Gauge(name, help, "gauge", value));
+    }
+
+    // Счетчик, который уже ведется где-то еще (например, LongAdder в самом компоненте)
+    public static void counterOf(String name, String help, LongSupplier value) {
+        gauges.put(name, new Gauge(name, help, "counter", value));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Family<T> register(Family<T> f) {
+        Family<?> prev = families.putIfAbsent(f.name, f);
+        return prev != null ? (Family<T>) prev : f;
+    }
+
+    public static final class Family<T> {
+        final String name, help, type;
+        final String[] labelNames;
+        private final Supplier<T> factory;
+        private final Map<List<String>, T> series = new ConcurrentHashMap<>();
+
+        Family(String name, String help, String type, String[] labelNames, Supplier<T> factory) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelNames = labelNames;
+            this.factory = factory;
+        }
+
+        // Серия с такими значениями меток (в порядке объявления); горячие места держат ее у себя
+        public T labels(String... values) {
+            if (values.length != labelNames.length) throw new IllegalArgumentException(name + ": expected " + labelNames.length + " labels");
+            List<String> key = Arrays.asList(values);
+            T s = series.get(key);
+            return s != null ? s : series.computeIfAbsent(key, k -> factory.get());
+        }
+    }
+
+    private static final class Gauge {
+        final String name, help, type;
+        final LongSupplier value;
+
+        Gauge(String name, String help, String type, LongSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    /*
+    Гистограмма задержек в наносекундах. Индекс корзины: значения меньше 8 — сами по себе,
+    дальше старший бит (степень двойки) и следующие 3 бита. 496 корзин покрывают весь long.
+     */
+    public static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB + SUB;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder sum = new LongAdder();
+
+        public void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            counts.incrementAndGet(index(nanos));
+            sum.add(nanos);
+        }
+
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        static int index(long v) {
+            if (v < SUB) return (int) v;
+            int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+            return (shift + 1) * SUB + (int) ((v >>> shift) & (SUB - 1));
+        }
+
+        // Нижняя граница корзины i (верхняя — нижняя граница i + 1)
+        static long lowerBound(int i) {
+            if (i < SUB) return i;
+            int shift = i / SUB - 1;
+            return (long) (SUB + i % SUB) << shift;
+        }
+
+        private static long upperBound(int i) {
+            return i + 1 >= BUCKETS ? Long.MAX_VALUE : lowerBound(i + 1);
+        }
+
+        public long count() {
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) n += counts.get(i);
+            return n;
+        }
+
+        public long sumNanos() {
+            return sum.sum();
+        }
+
+        // Значение квантиля q (0..1) в наносекундах: верхняя граница корзины, в которую он попал; 0 — пусто
+        public long quantile(double q) {
+            long[] c = snapshot();
+            long total = 0;
+            for (long x : c) total += x;
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += c[i];
+                if (seen >= rank) return upperBound(i) - 1;
+            }
+            return Long.MAX_VALUE;
+        }
+
+        public long max() {
+            for (int i = BUCKETS - 1; i >= 0; i--) if (counts.get(i) > 0) return upperBound(i) - 1;
+            return 0;
+        }
+
+        private long[] snapshot() {
+            long[] c = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) c[i] = counts.get(i);
+            return c;
+        }
+    }
+
+    // --- Вывод ---
+
+    public static String render() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Family<?> f : new TreeMap<>(families).values()) {
+            sb.append("# HELP ").append(f.name).append(' ').append(f.help).append('\n');
+            sb.append("# TYPE ").append(f.name).append(' ').append(f.type).append('\n');
+            List<Map.Entry<List<String>, ?>> series = new ArrayList<>(f.series.entrySet());
+            series.sort((a, b) -> String.join("\0", a.getKey()).compareTo(String.join("\0", b.getKey())));
+            for (Map.Entry<List<String>, ?> e : series) {
+                String labels = labels(f.labelNames, e.getKey());
+                if (e.getValue() instanceof Histogram) renderHistogram(sb, f.name, labels, (Histogram) e.getValue());
+                else sb.append(f.name).append(braces(labels)).append(' ').append(((LongAdder) e.getValue()).sum()).append('\n');
+            }
+        }
+        for (Gauge g : new TreeMap<>(gauges).values()) {
+            long v;
+            try {
+                v = g.value.getAsLong();
+            } catch (RuntimeException e) {
+                continue; // компонент еще не поднят
+            }
+            sb.append("# HELP ").append(g.name).append(' ').append(g.help).append('\n');
+            sb.append("# TYPE ").append(g.name).append(' ').append(g.type).append('\n');
+            sb.append(g.name).append(' ').append(v).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // Корзины le накопительные; корзина гистограммы попадает в le, если ее верхняя граница не больше le
+    private static void renderHistogram(StringBuilder sb, String name, String labels, Histogram h) {
+        long[] c = h.snapshot();
+        long total = 0;
+        int i = 0;
+        String sep = labels.isEmpty() ? "" : labels + ",";
+        for (int b = 0; b < LE.length; b++) {
+            long limit = (long) (LE[b] * 1e9);
+            while (i < Histogram.BUCKETS && Histogram.upperBound(i) <= limit) total += c[i++];
+            sb.append(name).append("_bucket{").append(sep).append("le=\"").append(LE_TEXT[b]).append("\"} ").append(total).append('\n');
+        }
+        while (i < Histogram.BUCKETS) total += c[i++];
+        sb.append(name).append("_bucket{").append(sep).append("le=\"+Inf\"} ").append(total).append('\n');
+        sb.append(name).append("_sum").append(braces(labels)).append(' ').append(h.sumNanos() / 1e9).append('\n');
+        sb.append(name).append("_count").append(braces(labels)).append(' ').append(total).append('\n');
+    }
+
+    private static String labels(String[] names, List<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(names[i]).append("=\"").append(escape(values.get(i))).append('"');
+        }
+        return sb.toString();
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String escape(String s) {
+        return s == null ? "" : s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
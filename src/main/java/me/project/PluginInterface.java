@@ -5,4 +5,12 @@ public interface PluginInterface extends Library {
     String handle_message(String sender, String text);
     String get_name();
     String get_description();
-}
\ No newline at end of file
+
+    // Необязательные: сколько секунд можно кэшировать ответ (0 — нельзя) и зависит ли он от отправителя
+    int cache_ttl();
+    int cache_per_sender();
+
+    // Необязательные: фильтр строк чата (null — пропустить, "" — выбросить, иначе замена) и его фаза (см. MessagePipeline)
+    String on_message(String sender, String room, String text);
+    int on_message_phase();
+}
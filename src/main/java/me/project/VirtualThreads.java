@@ -0,0 +1,38 @@
+package me.project;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+Виртуальные потоки (Java 21+) без обязательного перехода сборки на 21.
+Сборка по умолчанию таргетит Java 17, поэтому Executors.newVirtualThreadPerTaskExecutor() ищем через рефлексию:
+на JDK 21 получаем настоящий executor "поток на задачу", на JDK 17 — null, и вызывающий код откатывается на обычный пул.
+ */
+public final class VirtualThreads {
+    private static final Method FACTORY = find();
+
+    private VirtualThreads() {}
+
+    private static Method find() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public static boolean isSupported() {
+        return FACTORY != null;
+    }
+
+    // null, если JVM старше 21
+    public static ExecutorService newPerTaskExecutor() {
+        if (FACTORY == null) return null;
+        try {
+            return (ExecutorService) FACTORY.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
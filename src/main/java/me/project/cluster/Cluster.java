@@ -0,0 +1,252 @@
+package me.project.cluster;
+
+import me.project.ChatServer;
+import me.project.Metrics;
+import me.project.store.MessageJournal;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+Кластер из нескольких серверов чата (-Dchat.cluster.port=... и/или -Dchat.cluster.peers=host:port,...).
+Без этих настроек кластера нет, и все методы здесь — одна проверка volatile и выход.
+1. Узел: id из chat.cluster.node (по умолчанию node-<порт чата>), транспорт — MessageBus (сейчас TcpBus).
+2. Каталог присутствия: каждый узел сообщает остальным, какие ники у него онлайн (JOIN / LEAVE, а после
+   подключения — полный SYNC). Поэтому личное сообщение уходит ровно на тот узел, где сидит получатель,
+   а не рассылается всем. Пропала связь с узлом — его пользователи считаются оффлайн.
+3. Рассылки (broadcast, комнаты, #mass) уходят всем узлам. Узел-получатель доставляет их только своим клиентам
+   и дальше не пересылает (сетка полная, эхо невозможно). Фильтры on_message работают только на узле отправителя.
+4. Оффлайн-почта лежит на узле отправителя. Когда получатель заходит на другой узел, она переезжает туда
+   одним кадром MAIL и выдается ему там. Здесь она удаляется только по MAIL_ACK: если кадр не ушел или узел
+   пропал раньше ответа, почта остается в ящике и уедет при следующем JOIN.
+Что остается на каждом узле своим: плагины, журнал (#history видит то, что дошло до этого узла), ipHistory.
+ */
+public final class Cluster {
+    public static final String NODE = System.getProperty("chat.cluster.node", "node-" + ChatServer.PORT);
+
+    private static final int SYNC_CHUNK = 1000;
+    private static final long HANDOFF_TIMEOUT_MS = 30_000;
+
+    private static volatile MessageBus bus;
+
+    // Ники, о которых мы объявили остальным (под synchronized(Cluster.class), чтобы JOIN/LEAVE не перепутались)
+    private static final Set<String> announced = new HashSet<>();
+
+    // Чужие пользователи: ник -> узлы, где у него есть сессии; и обратно, чтобы забыть узел целиком
+    private static final Map<String, Set<String>> remoteUsers = new ConcurrentHashMap<>();
+    private static final Map<String, Set<String>> nodeUsers = new ConcurrentHashMap<>();
+
+    // Ник -> почта, которая ушла на другой узел и ждет MAIL_ACK: повторный JOIN/SYNC не шлет ее второй раз
+    private static final Map<String, Handoff> handoffs = new ConcurrentHashMap<>();
+
+    private static final class Handoff {
+        final String node;
+        final long started = System.currentTimeMillis();
+
+        Handoff(String node) {
+            this.node = node;
+        }
+    }
+
+    private Cluster() {}
+
+    public static boolean enabled() {
+        return bus != null;
+    }
+
+    // Из ChatServer.main, до открытия порта чата
+    public static void start() throws IOException {
+        int port = Integer.getInteger("chat.cluster.port", 0);
+        String peers = System.getProperty("chat.cluster.peers", "");
+        if (port <= 0 && peers.isBlank()) return;
+
+        MessageBus b = new TcpBus(NODE, port, TcpBus.parsePeers(peers));
+        b.start(new Handler());
+        bus = b;
+        Metrics.gauge("chat_cluster_nodes", "Узлы кластера, с которыми есть связь", () -> b.nodes().size());
+        Metrics.gauge("chat_cluster_remote_users", "Пользователи онлайн на других узлах", remoteUsers::size);
+        System.out.println("Cluster node " + NODE + (port > 0 ? " listening on " + port : "") + (peers.isBlank() ? "" : ", peers " + peers));
+    }
+
+    // --- Исходящее (вызывает ChatServer) ---
+
+    // room == MessageJournal.ALL_ROOMS — всем
+    public static void broadcast(String room, String msg, String senderName, boolean isSystem) {
+        MessageBus b = bus;
+        if (b == null) return;
+        b.publish(new ClusterMessage(ClusterMessage.BROADCAST, room, senderName, msg, isSystem ? "1" : "0"));
+    }
+
+    // true — получатель онлайн на другом узле (сообщение ушло туда)
+    public static boolean sendPrivate(String from, String to, String msg) {
+        MessageBus b = bus;
+        if (b == null) return false;
+        Set<String> nodes = remoteUsers.get(to);
+        if (nodes == null) return false;
+        boolean sent = false;
+        ClusterMessage m = new ClusterMessage(ClusterMessage.PRIVATE, from, to, msg);
+        for (String node : nodes) sent |= b.send(node, m);
+        return sent;
+    }
+
+    public static void mass(String from, String msg) {
+        MessageBus b = bus;
+        if (b == null) return;
+        b.publish(new ClusterMessage(ClusterMessage.MASS, from, msg));
+    }
+
+    // Набор сессий ника на этом узле изменился: объявляем, если он появился или пропал целиком
+    public static void presenceChanged(String user) {
+        MessageBus b = bus;
+        if (b == null || user == null) return;
+        synchronized (Cluster.class) {
+            boolean online = ChatServer.sessions.containsKey(user);
+            if (online == announced.contains(user)) return;
+            if (online) announced.add(user);
+            else announced.remove(user);
+            b.publish(new ClusterMessage(online ? ClusterMessage.JOIN : ClusterMessage.LEAVE, user));
+        }
+    }
+
+    public static boolean isOnlineElsewhere(String user) {
+        return remoteUsers.containsKey(user);
+    }
+
+    public static Set<String> nodes() {
+        MessageBus b = bus;
+        return b == null ? Set.of() : b.nodes();
+    }
+
+    // --- Входящее ---
+
+    private static final class Handler implements MessageBus.Listener {
+        @Override
+        public void onNodeUp(String node) {
+            forget(node);
+            // Полный список наших пользователей — под той же блокировкой, что и JOIN/LEAVE, чтобы не разойтись с ними
+            synchronized (Cluster.class) {
+                List<String> users = new ArrayList<>(announced);
+                for (int i = 0; i < users.size(); i += SYNC_CHUNK) {
+                    List<String> chunk = users.subList(i, Math.min(users.size(), i + SYNC_CHUNK));
+                    bus.send(node, new ClusterMessage(ClusterMessage.SYNC, chunk.toArray(new String[0])));
+                }
+            }
+        }
+
+        @Override
+        public void onNodeDown(String node) {
+            forget(node);
+        }
+
+        @Override
+        public void onMessage(String node, ClusterMessage m) {
+            String[] f = m.fields;
+            switch (m.type) {
+                case ClusterMessage.BROADCAST:
+                    if (MessageJournal.ALL_ROOMS.equals(f[0])) ChatServer.broadcastLocal(f[2], f[1], "1".equals(f[3]));
+                    else ChatServer.broadcastRoomLocal(f[0], f[2], f[1], "1".equals(f[3]));
+                    break;
+                case ClusterMessage.PRIVATE:
+                    ChatServer.deliverPrivate(f[0], f[1], f[2]);
+                    break;
+                case ClusterMessage.MASS:
+                    ChatServer.deliverMass(f[0], f[1]);
+                    break;
+                case ClusterMessage.SYNC:
+                case ClusterMessage.JOIN:
+                    for (String user : f) {
+                        if (user == null) continue;
+                        online(node, user);
+                        handOffMail(node, user);
+                    }
+                    break;
+                case ClusterMessage.LEAVE:
+                    offline(node, f[0]);
+                    break;
+                case ClusterMessage.MAIL:
+                    String user = f[0], through = f[1];
+                    ChatServer.deliverMail(user, Arrays.asList(f).subList(2, f.length)).whenComplete((v, err) -> {
+                        // Не сохранили — не подтверждаем: почта останется на узле-отправителе
+                        if (err == null) bus.send(node, new ClusterMessage(ClusterMessage.MAIL_ACK, user, through));
+                    });
+                    break;
+                case ClusterMessage.MAIL_ACK:
+                    mailDelivered(node, f[0], Long.parseLong(f[1]));
+                    break;
+                default:
+                    System.err.println("[Cluster] Unknown message " + m.type + " from " + node);
+            }
+        }
+    }
+
+    // Почта, которую здесь копили для ника, — на узел, где он только что появился.
+    // Диск — на потоке почты: поток чтения линии не ждет (и не берет блокировку ящика, которую держит
+    // компактирование), есть ли вообще почта — тоже решает peek. Из ящика почта уходит только по MAIL_ACK
+    private static void handOffMail(String node, String user) {
+        if (ChatServer.mailbox == null) return;
+        Handoff h = new Handoff(node);
+        Handoff prev = handoffs.putIfAbsent(user, h);
+        if (prev != null) {
+            // Ответа на прошлую передачу так и не было — пробуем снова
+            if (h.started - prev.started < HANDOFF_TIMEOUT_MS || !handoffs.replace(user, prev, h)) return;
+        }
+        ChatServer.mailbox.peekAsync(user).whenComplete((peek, err) -> {
+            if (err != null) {
+                System.err.println("[Cluster] Mailbox hand-off for " + user + " failed: " + err.getMessage());
+                handoffs.remove(user, h);
+                return;
+            }
+            if (peek.mail.isEmpty()) {
+                handoffs.remove(user, h);
+                return;
+            }
+            List<String> fields = new ArrayList<>(peek.mail.size() + 2);
+            fields.add(user);
+            fields.add(Long.toString(peek.through));
+            fields.addAll(peek.mail);
+            MessageBus b = bus;
+            if (b == null || !b.send(node, new ClusterMessage(ClusterMessage.MAIL, fields.toArray(new String[0])))) {
+                handoffs.remove(user, h); // кадр не ушел — почта так и лежит в ящике
+            }
+        });
+    }
+
+    // Узел принял почту — удаляем ровно то, что ему отправили
+    private static void mailDelivered(String node, String user, long through) {
+        Handoff h = handoffs.get(user);
+        if (h != null && h.node.equals(node)) handoffs.remove(user, h);
+        ChatServer.mailbox.drainThroughAsync(user, through).whenComplete((v, err) -> {
+            if (err != null) System.err.println("[Cluster] Mailbox drain for " + user + " failed: " + err.getMessage());
+        });
+    }
+
+    // Добавление и удаление — внутри compute по тому же ключу: иначе add мог попасть в набор,
+    // который offline только что убрал из карты как пустой, и пользователь потерялся бы
+    private static void online(String node, String user) {
+        remoteUsers.compute(user, (u, nodes) -> add(nodes, node));
+        nodeUsers.compute(node, (n, users) -> add(users, user));
+    }
+
+    private static void offline(String node, String user) {
+        remoteUsers.computeIfPresent(user, (u, nodes) -> remove(nodes, node));
+        nodeUsers.computeIfPresent(node, (n, users) -> remove(users, user));
+    }
+
+    private static Set<String> add(Set<String> set, String value) {
+        if (set == null) set = ConcurrentHashMap.newKeySet();
+        set.add(value);
+        return set;
+    }
+
+    private static Set<String> remove(Set<String> set, String value) {
+        set.remove(value);
+        return set.isEmpty() ? null : set;
+    }
+
+    private static void forget(String node) {
+        handoffs.values().removeIf(h -> h.node.equals(node)); // ответа уже не будет
+        Set<String> users = nodeUsers.remove(node);
+        if (users != null) for (String user : users) offline(node, user);
+    }
+}
@@ -0,0 +1,95 @@
+package me.project.cluster;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/*
+Сообщение между узлами кластера.
+Кадр: [int длина остального][byte тип][short число строк]{[int длина|-1][utf8]}...
+    HELLO(id узла)                          — первый кадр каждого соединения;
+    BROADCAST(комната|*, от кого, текст, 1|0) — рассылка (1 — системная), комната "*" — всем;
+    PRIVATE(от кого, кому, текст)           — личное сообщение пользователю, который сидит на том узле;
+    MASS(от кого, текст)                    — #mass всем клиентам узла;
+    SYNC(ник...)                            — кто сидит на узле-отправителе (после HELLO, может прийти пачкой кадров);
+    JOIN(ник) / LEAVE(ник)                  — на узле появилась первая сессия ника / закрылась последняя;
+    MAIL(кому, through, строка...)          — оффлайн-почта, накопленная для ника на узле-отправителе;
+    MAIL_ACK(кому, through)                 — почта выдана или сохранена у получателя, отправитель может ее удалить.
+ */
+public final class ClusterMessage {
+    public static final byte HELLO = 1;
+    public static final byte BROADCAST = 2;
+    public static final byte PRIVATE = 3;
+    public static final byte MASS = 4;
+    public static final byte SYNC = 5;
+    public static final byte JOIN = 6;
+    public static final byte LEAVE = 7;
+    public static final byte MAIL = 8;
+    public static final byte MAIL_ACK = 9;
+
+    static final String[] NAMES = {"", "hello", "broadcast", "private", "mass", "sync", "join", "leave", "mail", "mail_ack"};
+
+    private static final int MAX_FRAME = 16 * 1024 * 1024;
+
+    public final byte type;
+    public final String[] fields;
+
+    public ClusterMessage(byte type, String... fields) {
+        this.type = type;
+        this.fields = fields;
+    }
+
+    public String name() {
+        return type > 0 && type < NAMES.length ? NAMES[type] : "unknown";
+    }
+
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); // длина, заполним в конце
+            out.writeByte(type);
+            out.writeShort(fields.length);
+            for (String s : fields) {
+                if (s == null) { out.writeInt(-1); continue; }
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(b.length);
+                out.write(b);
+            }
+            byte[] frame = bytes.toByteArray();
+            int len = frame.length - 4;
+            frame[0] = (byte) (len >>> 24);
+            frame[1] = (byte) (len >>> 16);
+            frame[2] = (byte) (len >>> 8);
+            frame[3] = (byte) len;
+            return frame;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // ByteArrayOutputStream не бросает
+        }
+    }
+
+    // null — поток закрыт
+    static ClusterMessage read(DataInputStream in) throws IOException {
+        int len;
+        try {
+            len = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (len < 3 || len > MAX_FRAME) throw new IOException("Corrupt cluster frame (length " + len + ")");
+        byte[] body = new byte[len];
+        in.readFully(body);
+
+        DataInputStream b = new DataInputStream(new ByteArrayInputStream(body));
+        byte type = b.readByte();
+        String[] fields = new String[b.readUnsignedShort()];
+        for (int i = 0; i < fields.length; i++) {
+            int n = b.readInt();
+            if (n < 0) continue;
+            if (n > b.available()) throw new IOException("Corrupt cluster frame (string length " + n + ")");
+            byte[] s = new byte[n];
+            b.readFully(s);
+            fields[i] = new String(s, StandardCharsets.UTF_8);
+        }
+        return new ClusterMessage(type, fields);
+    }
+}
@@ -0,0 +1,34 @@
+package me.project.cluster;
+
+import java.io.IOException;
+import java.util.Set;
+
+/*
+Транспорт между узлами кластера. Сервер знает только этот интерфейс (через Cluster):
+как узлы находят друг друга и как байты доходят — дело реализации (TcpBus — TCP между процессами,
+в том числе несколькими серверами на одной машине через 127.0.0.1).
+Требования к реализации: сообщения одному узлу доходят в порядке отправки; publish/send не блокируют
+вызывающий поток (его ждут клиенты чата); о появлении и пропаже узла сообщается слушателю.
+ */
+public interface MessageBus {
+    interface Listener {
+        // Соединение с узлом установлено (или переустановлено): его прежний список пользователей недействителен
+        void onNodeUp(String node);
+
+        void onNodeDown(String node);
+
+        void onMessage(String node, ClusterMessage message);
+    }
+
+    void start(Listener listener) throws IOException;
+
+    // Всем подключенным узлам
+    void publish(ClusterMessage message);
+
+    // Одному узлу; false — кадр не ушел (с узлом нет связи или очередь к нему переполнена)
+    boolean send(String node, ClusterMessage message);
+
+    Set<String> nodes();
+
+    void close();
+}
@@ -0,0 +1,262 @@
+package me.project.cluster;
+
+import me.project.Metrics;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+MessageBus поверх TCP: полная сетка, каждый узел держит по одному соединению с каждым другим.
+1. Узел слушает chat.cluster.port и сам дозванивается до всех из chat.cluster.peers (host:port,...),
+   переподключаясь раз в секунду. Первый кадр соединения — HELLO с id узла.
+   Если два узла дозвонились друг до друга одновременно, оба оставляют соединение, которое открыл узел
+   с меньшим id, — так у пары ровно одна линия и порядок сообщений не перемешивается.
+2. Пачки: у каждой линии своя очередь (chat.cluster.queue кадров) и поток записи, который забирает всё накопившееся,
+   пишет подряд и делает один flush — под нагрузкой десятки сообщений уходят одним сегментом TCP.
+   Переполнилась очередь (узел не успевает читать) — кадр выбрасывается и считается в метриках, чат не ждет.
+3. Чтение — свой поток на линию; сообщения передаются слушателю (Cluster) прямо на нем.
+   onNodeUp/onNodeDown вызываются под той же блокировкой links, что и замена линии, и down — только для линии,
+   которая все еще текущая: запоздавший down старой линии не сотрет присутствие, присланное новой.
+ */
+public class TcpBus implements MessageBus {
+    public static final int QUEUE = Integer.getInteger("chat.cluster.queue", 65536);
+    private static final int MAX_BATCH = 1024;
+    private static final long REDIAL_MS = 1000;
+
+    private final String self;
+    private final int port;
+    private final List<InetSocketAddress> peers;
+
+    // id узла -> его линия (ровно одна на пару узлов)
+    private final Map<String, Link> links = new ConcurrentHashMap<>();
+    private volatile Listener listener;
+    private volatile boolean running;
+    private ServerSocket server;
+
+    public TcpBus(String self, int port, List<InetSocketAddress> peers) {
+        this.self = self;
+        this.port = port;
+        this.peers = peers;
+    }
+
+    // "host:port,host:port" -> адреса (пустые элементы пропускаются)
+    public static List<InetSocketAddress> parsePeers(String spec) {
+        List<InetSocketAddress> out = new ArrayList<>();
+        if (spec == null) return out;
+        for (String p : spec.split(",")) {
+            p = p.trim();
+            if (p.isEmpty()) continue;
+            int colon = p.lastIndexOf(':');
+            if (colon <= 0) throw new IllegalArgumentException("Bad cluster peer (need host:port): " + p);
+            out.add(new InetSocketAddress(p.substring(0, colon), Integer.parseInt(p.substring(colon + 1))));
+        }
+        return out;
+    }
+
+    @Override
+    public void start(Listener listener) throws IOException {
+        this.listener = listener;
+        this.running = true;
+        if (port > 0) {
+            server = new ServerSocket();
+            server.setReuseAddress(true);
+            server.bind(new InetSocketAddress(port));
+            daemon("cluster-accept", this::acceptLoop);
+        }
+        for (InetSocketAddress addr : peers) daemon("cluster-dial-" + addr.getPort(), () -> dialLoop(addr));
+    }
+
+    @Override
+    public void publish(ClusterMessage message) {
+        if (links.isEmpty()) return;
+        byte[] frame = message.encode(); // один раз на все узлы
+        for (Link l : links.values()) l.send(frame, message);
+    }
+
+    @Override
+    public boolean send(String node, ClusterMessage message) {
+        Link l = links.get(node);
+        return l != null && l.send(message.encode(), message);
+    }
+
+    @Override
+    public Set<String> nodes() {
+        return Collections.unmodifiableSet(links.keySet());
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try { if (server != null) server.close(); } catch (IOException ignored) {}
+        for (Link l : links.values()) l.close();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket s = server.accept();
+                new Link(s, false, null).start();
+            } catch (IOException e) {
+                if (running) System.err.println("[Cluster] Accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // Держим линию до адреса из chat.cluster.peers; пока она жива — просто ждем
+    private void dialLoop(InetSocketAddress addr) {
+        Link current = null;
+        while (running) {
+            if (current == null || (current.closed && !linked(current.node))) {
+                try {
+                    Socket s = new Socket();
+                    s.connect(addr, (int) REDIAL_MS);
+                    current = new Link(s, true, addr);
+                    current.start();
+                } catch (IOException e) {
+                    current = null; // узел еще не поднялся — попробуем позже
+                }
+            }
+            try { Thread.sleep(REDIAL_MS); } catch (InterruptedException e) { return; }
+        }
+    }
+
+    // Линию закрыли в пользу встречной — до узла мы и так достаем
+    private boolean linked(String node) {
+        if (node == null) return false;
+        Link l = links.get(node);
+        return l != null && !l.closed;
+    }
+
+    private static Thread daemon(String name, Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    private final class Link {
+        private final Socket socket;
+        private final boolean outbound; // мы дозвонились (а не приняли)
+        private final InetSocketAddress addr;
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(Math.max(1, QUEUE));
+        private volatile String node;
+        private Thread writer;
+        volatile boolean closed;
+
+        Link(Socket socket, boolean outbound, InetSocketAddress addr) throws IOException {
+            this.socket = socket;
+            this.outbound = outbound;
+            this.addr = addr;
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+        }
+
+        void start() {
+            queue.add(new ClusterMessage(ClusterMessage.HELLO, self).encode());
+            String name = outbound ? "cluster-" + addr.getHostString() + ":" + addr.getPort() : "cluster-in-" + socket.getPort();
+            writer = daemon(name + "-writer", this::writeLoop);
+            daemon(name + "-reader", this::readLoop);
+        }
+
+        // false — кадр не поставлен в очередь (линия закрыта или очередь полна)
+        boolean send(byte[] frame, ClusterMessage m) {
+            if (closed) return false;
+            if (queue.offer(frame)) {
+                Metrics.CLUSTER_SENT.labels(m.name()).increment();
+                return true;
+            }
+            Metrics.CLUSTER_DROPPED.increment();
+            return false;
+        }
+
+        // Соединение, которое открыл узел с меньшим id
+        private boolean preferred() {
+            String dialer = outbound ? self : node;
+            String acceptor = outbound ? node : self;
+            return dialer.compareTo(acceptor) < 0;
+        }
+
+        private void readLoop() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024))) {
+                ClusterMessage hello = ClusterMessage.read(in);
+                if (hello == null) return; // встречная сторона сразу закрыла лишнюю линию
+                if (hello.type != ClusterMessage.HELLO || hello.fields.length < 1 || hello.fields[0] == null) {
+                    throw new IOException("No HELLO from " + socket.getRemoteSocketAddress());
+                }
+                node = hello.fields[0];
+                if (node.equals(self)) throw new IOException("Connected to itself (duplicate chat.cluster.node?)");
+                if (!register()) return;
+
+                ClusterMessage m;
+                while ((m = ClusterMessage.read(in)) != null) {
+                    Metrics.CLUSTER_RECEIVED.labels(m.name()).increment();
+                    listener.onMessage(node, m);
+                }
+            } catch (IOException e) {
+                if (running && !closed) System.err.println("[Cluster] Link " + (node != null ? node : socket.getRemoteSocketAddress()) + ": " + e.getMessage());
+            } finally {
+                close();
+            }
+        }
+
+        // Ставит линию в links и сообщает onNodeUp; false — у пары уже есть линия, которую надо оставить, а эту закрыть
+        private boolean register() {
+            synchronized (links) {
+                Link old = links.get(node);
+                if (old != null && !old.closed && old.preferred() && !preferred()) {
+                    closeQuietly();
+                    return false;
+                }
+                links.put(node, this);
+                if (old != null && old != this) old.closeQuietly();
+                System.out.println("[Cluster] Linked with " + node + " (" + socket.getRemoteSocketAddress() + ")");
+                listener.onNodeUp(node); // только кладет кадры в очередь — под блокировкой можно
+                return true;
+            }
+        }
+
+        private void writeLoop() {
+            List<byte[]> batch = new ArrayList<>();
+            try {
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                while (!closed) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    for (byte[] f : batch) out.write(f);
+                    out.flush();
+                    Metrics.CLUSTER_BATCHES.increment();
+                    batch.clear();
+                }
+            } catch (IOException | InterruptedException e) {
+                close();
+            }
+        }
+
+        // Заменена новой линией к тому же узлу: узел никуда не делся, onNodeDown не нужен
+        void closeQuietly() {
+            closed = true;
+            try { socket.close(); } catch (IOException ignored) {}
+            writer.interrupt();
+        }
+
+        void close() {
+            closed = true;
+            try { socket.close(); } catch (IOException ignored) {}
+            writer.interrupt();
+            String n = node;
+            if (n == null) return;
+            synchronized (links) {
+                // Линию уже заменили — узел на связи через новую, down не нужен
+                if (!links.remove(n, this)) return;
+                System.out.println("[Cluster] Lost " + n);
+                listener.onNodeDown(n);
+            }
+        }
+    }
+}
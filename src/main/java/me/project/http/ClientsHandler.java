@@ -0,0 +1,41 @@
+package me.project.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import me.project.ChatServer;
+import me.project.ClientHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/*
+Кто сейчас в чате и насколько у каждого забита очередь исходящих сообщений.
+queued — сколько сообщений ждут записи в сокет, dropped — сколько выкинуто политикой переполнения.
+По этим цифрам видно медленных клиентов до того, как они начнут терять сообщения.
+ */
+public class ClientsHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange t) throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        int i = 0;
+        for (ClientHandler c : ChatServer.clients) {
+            if (i++ > 0) json.append(",");
+            json.append(String.format(
+                    "{\"user\":\"%s\", \"ip\":\"%s\", \"room\":\"%s\", \"queued\":%d, \"dropped\":%d}",
+                    escape(c.username), escape(c.ip), escape(c.room), c.queueDepth(), c.outbound.dropped()
+            ));
+        }
+        json.append("]");
+
+        t.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        byte[] b = json.toString().getBytes(StandardCharsets.UTF_8);
+        t.sendResponseHeaders(200, b.length);
+        try (OutputStream os = t.getResponseBody()) { os.write(b); }
+    }
+
+    private String escape(String s) {
+        if (s == null) return "";
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", " ");
+    }
+}
@@ -2,79 +2,60 @@ package me.project.http;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
-import me.project.ChatServer;
-import me.project.LoadedPlugin;
+import me.project.plugin.CompileService;
 
 import java.io.*;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 
 /*
-1. Принимает C++ код из браузера.
-2. Сохраняет его во временный .cpp файл, добавляя нужные заголовки (#include).
-3. Запускает системную команду g++ (как в терминале), чтобы превратить текст в библиотеку (.dll или .so).
-4. Загружает: Если компиляция прошла успешно, он вызывает метод сервера loadPluginSafe для подключения плагина.
-5. Отвечает: Возвращает браузеру "Success" или текст ошибки, после чего удаляет временный файл исходного кода.
+1. Принимает C++ код из браузера (POST) и отдает его в CompileService.
+2. Сам g++ здесь больше не запускается: сервис либо сразу берет библиотеку из кэша, либо ставит сборку
+   в очередь. В ответ — номер задачи: {"job":N, "state":"...", ...}.
+3. Браузер опрашивает GET /compile?job=N, пока state не станет DONE или FAILED; в message — "Success"
+   или текст ошибки компилятора.
+4. Очередь сборки переполнена — 503.
  */
 
 
 public class CompileHandler implements HttpHandler {
+    private final CompileService service = new CompileService(new File("plugins"));
+
     @Override
     public void handle(HttpExchange t) throws IOException {
         if ("POST".equals(t.getRequestMethod())) {
             Map<String, String> params = parse(readBody(t));
-            String result = compile(params.get("filename"), params.get("code"));
-            sendResponse(t, result);
+            try {
+                sendJob(t, 200, service.submit(params.get("filename"), params.get("code")));
+            } catch (RejectedExecutionException e) {
+                sendResponse(t, 503, "{\"state\":\"FAILED\", \"message\":\"Очередь сборки переполнена, попробуйте позже.\"}");
+            } catch (IOException e) {
+                sendResponse(t, 400, "{\"state\":\"FAILED\", \"message\":\"" + escape(e.getMessage()) + "\"}");
+            }
+        } else if ("GET".equals(t.getRequestMethod())) {
+            String q = t.getRequestURI().getQuery();
+            Map<String, String> params = parse(q == null ? "" : q);
+            CompileService.Job job = null;
+            try { job = service.job(Long.parseLong(params.getOrDefault("job", ""))); } catch (NumberFormatException ignored) {}
+            if (job == null) sendResponse(t, 404, "{\"state\":\"FAILED\", \"message\":\"No such job\"}");
+            else sendJob(t, 200, job);
+        } else {
+            sendResponse(t, 405, "{}");
         }
     }
 
-    private String compile(String filename, String code) {
-        File src = new File("plugins", "temp_" + filename + ".cpp");
-        try {
-            String fullCode = "#include \"api.h\"\n#include <string>\n#include <vector>\nusing namespace std;\n" + code;
-            try (PrintWriter w = new PrintWriter(src, StandardCharsets.UTF_8)) {
-                w.println(fullCode);
-            }
-
-            File out = new File("plugins", filename + ChatServer.LIB_EXT);
-            if (out.exists()) out.delete();
-
-            List<String> cmd = new ArrayList<>(Arrays.asList(
-                    "g++", "-shared", "-o", out.getAbsolutePath(), src.getAbsolutePath(), "-I."
-            ));
-
-            if (!ChatServer.IS_WIN) cmd.add("-fPIC");
-            if (ChatServer.IS_MAC) { cmd.add("-undefined"); cmd.add("dynamic_lookup"); }
-
-            ProcessBuilder pb = new ProcessBuilder(cmd);
-            pb.redirectErrorStream(true);
-            pb.directory(new File("."));
-            Process p = pb.start();
-
-            BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder();
-            String line; while((line = br.readLine()) != null) sb.append(line).append("\n");
-
-            if (p.waitFor() == 0) {
-                // ИСПОЛЬЗУЕМ ВОЗВРАЩЕННЫЙ ОБЪЕКТ
-                LoadedPlugin lp = ChatServer.loadPluginSafe(out);
-
-                if (lp != null) {
-                    ChatServer.broadcast("🔌 Плагин #" + lp.name + " скомпилирован и загружен!", "System", true);
-                    return "Success";
-                } else {
-                    return "Error: Plugin loaded but returned null (check console)";
-                }
-            } else {
-                return "Compile Error:\n" + sb.toString();
-            }
+    private void sendJob(HttpExchange t, int code, CompileService.Job job) throws IOException {
+        sendResponse(t, code, String.format(
+                "{\"job\":%d, \"file\":\"%s\", \"state\":\"%s\", \"cached\":%b, \"queued\":%d, \"message\":\"%s\"}",
+                job.id, escape(job.filename), job.state, job.cached, service.queued(), escape(job.message)
+        ));
+    }
 
-        } catch (Exception e) {
-            return "System Error: " + e.getMessage();
-        } finally {
-            if (src.exists()) src.delete();
-        }
+    private String escape(String s) {
+        if (s == null) return "";
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "").replace("\t", " ");
     }
 
     // Стандартные методы readBody, sendResponse, parse
@@ -86,9 +67,10 @@ public class CompileHandler implements HttpHandler {
         }
     }
 
-    private void sendResponse(HttpExchange t, String resp) throws IOException {
+    private void sendResponse(HttpExchange t, int code, String resp) throws IOException {
         byte[] b = resp.getBytes(StandardCharsets.UTF_8);
-        t.sendResponseHeaders(200, b.length);
+        t.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        t.sendResponseHeaders(code, b.length);
         t.getResponseBody().write(b);
         t.close();
     }
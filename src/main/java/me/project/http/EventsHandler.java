@@ -0,0 +1,60 @@
+package me.project.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import me.project.EventHub;
+import me.project.VirtualThreads;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+/events — поток Server-Sent Events для админки (EventSource в index.html) вместо постоянного опроса.
+Запрос не держит поток HTTP-сервера: отправляем заголовки, регистрируем подписчика в EventHub и выходим,
+а писать в соединение дальше будет отдельный поток подписчика (виртуальный на Java 21+).
+ */
+public class EventsHandler implements HttpHandler {
+    private static final ExecutorService writers = newWriters();
+
+    private static ExecutorService newWriters() {
+        ExecutorService vt = VirtualThreads.newPerTaskExecutor();
+        if (vt != null) return vt;
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "events-writer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public void handle(HttpExchange t) throws IOException {
+        if (!"GET".equals(t.getRequestMethod())) {
+            t.sendResponseHeaders(405, -1);
+            t.close();
+            return;
+        }
+        OutputStream os = t.getResponseBody();
+        EventHub.Subscriber s = EventHub.subscribe(os);
+        if (s == null) {
+            byte[] b = "Too many subscribers".getBytes(StandardCharsets.UTF_8);
+            t.sendResponseHeaders(503, b.length);
+            os.write(b);
+            t.close();
+            return;
+        }
+        try {
+            t.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+            t.getResponseHeaders().set("Cache-Control", "no-cache");
+            t.getResponseHeaders().set("X-Accel-Buffering", "no");
+            t.sendResponseHeaders(200, 0); // chunked, без длины
+            os.write("retry: 3000\n\n".getBytes(StandardCharsets.UTF_8));
+            os.flush();
+        } finally {
+            // Даже если браузер уже ушел — поток подписчика заметит это на первой записи и уберет его
+            writers.execute(s);
+        }
+    }
+}
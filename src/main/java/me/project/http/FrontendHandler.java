@@ -1,21 +1,304 @@
 package me.project.http;
 
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
 
+/*
+Раздача админки (index.html и остальной статики).
+1. Откуда: папка -Dchat.http.root (по умолчанию web/, если она есть). Без папки — как раньше, один index.html
+   из текущей директории: отдавать всю рабочую папку нельзя, там journal, mailbox и plugins.
+   "/" и пути без расширения (которых нет на диске) отдают index.html. Выйти за корень нельзя ни через ../,
+   ни по символической ссылке: настоящий путь файла сверяется с настоящим путем корня.
+2. Кэш в памяти: файл читается один раз и перечитывается, только если поменялся его mtime
+   (сам mtime проверяем не чаще раза в секунду). Сразу же готовим gzip-версию для текстовых файлов.
+   Содержимое хранится по настоящему пути файла (toRealPath), поэтому /, /chat, /a/../index.html и любые
+   ?параметры дают одну копию index.html. Отдельно — LRU на chat.http.routes путей запроса (без query,
+   нормализованных): какой файл за каким путем, чтобы частые запросы не ходили на диск.
+   Brotli в JDK нет, поэтому br отдаем, только если рядом лежит готовый файл.br (не старше оригинала).
+3. Условные запросы: ETag + Last-Modified, на If-None-Match / If-Modified-Since отвечаем 304 без тела.
+   Файлы больше chat.http.cacheMaxFile не кэшируются и отдаются как есть.
+ */
 public class FrontendHandler implements HttpHandler {
+    private static final long MAX_CACHED = Long.getLong("chat.http.cacheMaxFile", 4L * 1024 * 1024);
+    private static final long RECHECK_MS = 1000;
+    private static final int MIN_COMPRESS = 256;
+    private static final int MAX_ROUTES = Integer.getInteger("chat.http.routes", 1024);
+
+    private static final Map<String, String> TYPES = Map.ofEntries(
+            Map.entry("html", "text/html; charset=utf-8"),
+            Map.entry("htm", "text/html; charset=utf-8"),
+            Map.entry("css", "text/css; charset=utf-8"),
+            Map.entry("js", "application/javascript; charset=utf-8"),
+            Map.entry("mjs", "application/javascript; charset=utf-8"),
+            Map.entry("json", "application/json; charset=utf-8"),
+            Map.entry("map", "application/json; charset=utf-8"),
+            Map.entry("txt", "text/plain; charset=utf-8"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("ico", "image/x-icon"),
+            Map.entry("woff", "font/woff"),
+            Map.entry("woff2", "font/woff2")
+    );
+
+    private final Path root;   // null — режим одного index.html
+    // Нормализованный путь запроса -> файл; в пределах RECHECK_MS повторный запрос вообще не трогает диск.
+    // Старые пути вытесняются, так что случайные адреса память не забивают
+    private final Map<String, Route> routes = Collections.synchronizedMap(new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Route> eldest) {
+            return size() > MAX_ROUTES;
+        }
+    });
+    // Настоящий путь файла -> содержимое; записей не больше, чем файлов в корне
+    private final Map<Path, Asset> cache = new ConcurrentHashMap<>();
+
+    private static class Route {
+        final Path file;
+        final long checkedAt;
+
+        Route(Path file, long checkedAt) {
+            this.file = file;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    private static class Asset {
+        final Path file;
+        final long mtime;
+        final byte[] raw, gzip, br;
+        final String etag, lastModified, type;
+        volatile long checkedAt;
+
+        Asset(Path file, long mtime, byte[] raw, byte[] gzip, byte[] br, String type) {
+            this.file = file;
+            this.mtime = mtime;
+            this.raw = raw;
+            this.gzip = gzip;
+            this.br = br;
+            this.type = type;
+            CRC32 crc = new CRC32();
+            if (raw != null) crc.update(raw);
+            this.etag = "\"" + Long.toHexString(crc.getValue()) + "-" + (raw == null ? 0 : raw.length) + "\"";
+            this.lastModified = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                    ZonedDateTime.ofInstant(Instant.ofEpochMilli(mtime), ZoneOffset.UTC));
+            this.checkedAt = System.currentTimeMillis();
+        }
+    }
+
+    public FrontendHandler() {
+        String dir = System.getProperty("chat.http.root");
+        if (dir == null && new File("web").isDirectory()) dir = "web";
+        this.root = dir == null ? null : Path.of(dir).toAbsolutePath().normalize();
+        if (root != null) System.out.println("Serving admin UI from " + root);
+    }
+
     @Override
     public void handle(HttpExchange t) throws IOException {
-        File file = new File("index.html");
-        byte[] bytes;
-        if(file.exists()) bytes = Files.readAllBytes(file.toPath());
-        else bytes = "<h1>Error: index.html missing</h1>".getBytes();
+        String method = t.getRequestMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            send(t, 405, "text/plain; charset=utf-8", new byte[0], true);
+            return;
+        }
+
+        // В режиме одного index.html любой путь — это он же
+        Asset a = asset(root == null ? "" : key(t.getRequestURI().getPath()));
+        if (a == null) {
+            byte[] msg = root == null ? "<h1>Error: index.html missing</h1>".getBytes() : "<h1>404 Not Found</h1>".getBytes();
+            send(t, 404, "text/html; charset=utf-8", msg, !"HEAD".equals(method));
+            return;
+        }
+        if (a.raw == null) {
+            // Слишком большой для кэша — читаем с диска как есть
+            t.getResponseHeaders().set("Content-Type", a.type);
+            t.sendResponseHeaders(200, "HEAD".equals(method) ? -1 : Files.size(a.file));
+            if (!"HEAD".equals(method)) try (OutputStream os = t.getResponseBody()) { Files.copy(a.file, os); }
+            t.close();
+            return;
+        }
+
+        Headers h = t.getResponseHeaders();
+        h.set("ETag", a.etag);
+        h.set("Last-Modified", a.lastModified);
+        h.set("Cache-Control", "no-cache");
+        h.set("Vary", "Accept-Encoding");
+        if (notModified(t, a)) {
+            t.sendResponseHeaders(304, -1);
+            t.close();
+            return;
+        }
+
+        byte[] body = a.raw;
+        String accept = t.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accept != null) {
+            if (a.br != null && accepts(accept, "br")) {
+                body = a.br;
+                h.set("Content-Encoding", "br");
+            } else if (a.gzip != null && accepts(accept, "gzip")) {
+                body = a.gzip;
+                h.set("Content-Encoding", "gzip");
+            }
+        }
+        send(t, 200, a.type, body, !"HEAD".equals(method));
+    }
+
+    // Путь запроса (уже без query) -> путь относительно корня: без лишних /, ./ и ../; null — выходит за корень
+    private String key(String path) {
+        String rel = path == null ? "" : path.replaceFirst("^/+", "");
+        Path file = root.resolve(rel).normalize();
+        if (!file.startsWith(root)) return null;
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    // Путь относительно корня -> настоящий файл внутри корня, или null
+    private Path resolve(String rel) throws IOException {
+        if (root == null) {
+            Path index = Path.of("index.html");
+            return Files.isRegularFile(index) ? index.toRealPath() : null;
+        }
+        Path file = root.resolve(rel.isEmpty() ? "index.html" : rel);
+        if (file.getFileName().toString().startsWith(".")) return null;
+        if (Files.isDirectory(file)) file = file.resolve("index.html");
+        if (Files.isRegularFile(file)) return inside(file.toRealPath());
+        // Пути клиентской навигации (без расширения) отдают саму страницу
+        if (!rel.contains(".")) {
+            Path index = root.resolve("index.html");
+            if (Files.isRegularFile(index)) return inside(index.toRealPath());
+        }
+        return null;
+    }
+
+    // null — ссылка ведет за пределы корня (например, в journal/ или mailbox/)
+    private Path inside(Path real) throws IOException {
+        return real.startsWith(root.toRealPath()) ? real : null;
+    }
+
+    // null — нет такого файла
+    private Asset asset(String key) throws IOException {
+        if (key == null) return null;
+        long now = System.currentTimeMillis();
+        Route r = routes.get(key);
+        Path file;
+        if (r != null && now - r.checkedAt < RECHECK_MS) {
+            file = r.file;
+        } else {
+            file = resolve(key);
+            if (file == null) {
+                routes.remove(key);
+                return null;
+            }
+            routes.put(key, new Route(file, now));
+        }
+
+        Asset a = cache.get(file);
+        if (a != null && now - a.checkedAt < RECHECK_MS) return a;
+        long mtime;
+        try {
+            mtime = Files.getLastModifiedTime(file).toMillis();
+        } catch (NoSuchFileException e) {
+            // Файл удалили, пока путь был в кэше
+            cache.remove(file);
+            routes.remove(key);
+            return null;
+        }
+        if (a != null && a.mtime == mtime) {
+            a.checkedAt = now;
+            return a;
+        }
+        a = load(file, mtime);
+        cache.put(file, a);
+        return a;
+    }
+
+    private Asset load(Path file, long mtime) throws IOException {
+        String type = type(file);
+        if (Files.size(file) > MAX_CACHED) return new Asset(file, mtime, null, null, null, type);
+        byte[] raw = Files.readAllBytes(file);
+        byte[] gzip = null, br = null;
+        if (compressible(type) && raw.length >= MIN_COMPRESS) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(raw.length / 2);
+            try (GZIPOutputStream gz = new GZIPOutputStream(bos)) { gz.write(raw); }
+            if (bos.size() < raw.length) gzip = bos.toByteArray();
+
+            Path sidecar = file.resolveSibling(file.getFileName() + ".br");
+            if (Files.isRegularFile(sidecar) && Files.getLastModifiedTime(sidecar).toMillis() >= mtime) {
+                br = Files.readAllBytes(sidecar);
+            }
+        }
+        return new Asset(file, mtime, raw, gzip, br, type);
+    }
+
+    private static boolean notModified(HttpExchange t, Asset a) {
+        String inm = t.getRequestHeaders().getFirst("If-None-Match");
+        if (inm != null) {
+            for (String tag : inm.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) tag = tag.substring(2);
+                if (tag.equals(a.etag) || tag.equals("*")) return true;
+            }
+            return false; // If-None-Match главнее If-Modified-Since
+        }
+        String ims = t.getRequestHeaders().getFirst("If-Modified-Since");
+        if (ims == null) return false;
+        try {
+            long since = ZonedDateTime.parse(ims, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return a.mtime / 1000 <= since / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private static boolean accepts(String header, String coding) {
+        for (String part : header.split(",")) {
+            String[] p = part.trim().split(";");
+            if (!p[0].trim().equalsIgnoreCase(coding)) continue;
+            return p.length < 2 || !p[1].trim().replace(" ", "").matches("q=0(\\.0*)?");
+        }
+        return false;
+    }
+
+    private static String type(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return TYPES.getOrDefault(dot < 0 ? "" : name.substring(dot + 1).toLowerCase(), "application/octet-stream");
+    }
+
+    private static boolean compressible(String type) {
+        return type.startsWith("text/") || type.startsWith("application/javascript")
+                || type.startsWith("application/json") || type.startsWith("image/svg");
+    }
 
-        t.sendResponseHeaders(200, bytes.length);
-        try (OutputStream os = t.getResponseBody()) { os.write(bytes); }
+    private static void send(HttpExchange t, int code, String type, byte[] body, boolean withBody) throws IOException {
+        t.getResponseHeaders().set("Content-Type", type);
+        if (!withBody) {
+            t.getResponseHeaders().set("Content-Length", String.valueOf(body.length));
+            t.sendResponseHeaders(code, -1);
+            t.close();
+            return;
+        }
+        t.sendResponseHeaders(code, body.length);
+        try (OutputStream os = t.getResponseBody()) { os.write(body); }
     }
-}
\ No newline at end of file
+}
@@ -82,6 +82,7 @@ public class ManageHandler implements HttpHandler {
 
                     File meta = new File("plugins", filename + ".txt");
                     if (meta.exists()) meta.delete();
+                    ChatServer.catalog.removed(filename);
                     ChatServer.broadcast("🗑️ Плагин " + displayName + " удален насовсем.", "System", true);
                     response = "Файл удален окончательно.";
                 } else {
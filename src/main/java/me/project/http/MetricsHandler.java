@@ -0,0 +1,28 @@
+package me.project.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import me.project.Metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/*
+/metrics — все счетчики и гистограммы из Metrics в текстовом формате Prometheus (для scrape).
+Текст собирается на каждый запрос: это O(серий), горячий путь чата при этом ничего не ждет.
+ */
+public class MetricsHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange t) throws IOException {
+        byte[] b = Metrics.render().getBytes(StandardCharsets.UTF_8);
+        t.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        if ("HEAD".equals(t.getRequestMethod())) {
+            t.sendResponseHeaders(200, -1);
+            t.close();
+            return;
+        }
+        t.sendResponseHeaders(200, b.length);
+        try (OutputStream os = t.getResponseBody()) { os.write(b); }
+    }
+}
@@ -0,0 +1,56 @@
+package me.project.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import me.project.ChatServer;
+import me.project.LoadedPlugin;
+import me.project.plugin.PluginExecutor;
+import me.project.plugin.ResultCache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/*
+Счетчики вызовов плагинов (из их PluginExecutor): сколько вызовов, отказов по переполненной очереди,
+таймаутов, ошибок, среднее/максимальное время нативного вызова и что сейчас в очереди.
+Для чистых плагинов — попадания/промахи кэша ответов и его размер. У фильтров (on_message) — их фаза;
+вызовы фильтра считаются в тех же счетчиках, что и команды.
+ */
+public class StatsHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange t) throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        int i = 0;
+        for (LoadedPlugin p : ChatServer.plugins.values()) {
+            if (!p.isLoaded()) continue; // ленивая заглушка, вызовов еще не было
+            PluginExecutor e = p.executor;
+            ResultCache c = p.cache;
+            long calls = e.calls.sum();
+            long ran = calls - e.rejected.sum();
+            long avgMicros = ran <= 0 ? 0 : e.totalNanos.sum() / ran / 1000;
+            if (i++ > 0) json.append(",");
+            json.append(String.format(
+                    "{\"cmd\":\"%s\", \"calls\":%d, \"rejected\":%d, \"timeouts\":%d, \"errors\":%d, " +
+                    "\"avgMicros\":%d, \"maxMicros\":%d, \"queued\":%d, \"active\":%d, " +
+                    "\"cacheHits\":%d, \"cacheMisses\":%d, \"cacheEntries\":%d, \"cacheBytes\":%d, " +
+                    "\"hook\":%b, \"phase\":%d}",
+                    escape(p.name), calls, e.rejected.sum(), e.timeouts.sum(), e.errors.sum(),
+                    avgMicros, e.maxNanos.get() / 1000, e.queued(), e.active(),
+                    c == null ? 0 : c.hits.sum(), c == null ? 0 : c.misses.sum(), c == null ? 0 : c.size(), c == null ? 0 : c.bytes(),
+                    p.hook, p.phase
+            ));
+        }
+        json.append("]");
+
+        t.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        byte[] b = json.toString().getBytes(StandardCharsets.UTF_8);
+        t.sendResponseHeaders(200, b.length);
+        try (OutputStream os = t.getResponseBody()) { os.write(b); }
+    }
+
+    private String escape(String s) {
+        if (s == null) return "";
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", " ");
+    }
+}
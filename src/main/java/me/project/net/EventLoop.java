@@ -0,0 +1,87 @@
+package me.project.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+Один поток + один Selector.
+Другие потоки общаются с циклом только через две очереди (новые каналы и "хочу записать") и selector.wakeup(),
+поэтому SelectionKey трогает только поток самого цикла.
+ */
+public class EventLoop implements Runnable {
+    private static final int READ_BUFFER = 64 * 1024;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final Queue<NioConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    // Один буфер чтения на весь цикл: все соединения цикла читают в него по очереди
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER);
+
+    public EventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void register(SocketChannel ch) {
+        pendingChannels.add(ch);
+        selector.wakeup();
+    }
+
+    void requestWrite(NioConnection conn) {
+        pendingWrites.add(conn);
+        if (Thread.currentThread() != thread) selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+                registerPending();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    NioConnection conn = (NioConnection) key.attachment();
+                    if (!key.isValid()) { conn.close(); continue; }
+                    if (key.isReadable()) conn.onReadable(readBuffer);
+                    if (key.isValid() && key.isWritable()) conn.flush();
+                }
+
+                // Записи, запрошенные во время обработки (в том числе другими потоками)
+                NioConnection conn;
+                while ((conn = pendingWrites.poll()) != null) conn.flush();
+            } catch (Exception e) {
+                System.err.println("[NIO] " + thread.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void registerPending() {
+        SocketChannel ch;
+        while ((ch = pendingChannels.poll()) != null) {
+            try {
+                SelectionKey key = ch.register(selector, SelectionKey.OP_READ);
+                NioConnection conn = new NioConnection(this, ch, key);
+                key.attach(conn);
+                conn.open();
+            } catch (IOException e) {
+                try { ch.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package me.project.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/*
+Неблокирующий транспорт чата (вместо "один поток на клиента").
+1. Приём: главный поток крутит accept() на ServerSocketChannel и раздаёт новые каналы по кругу между циклами событий.
+2. Циклы событий (EventLoop): по одному на ядро. Каждый цикл — это один поток и один Selector,
+   который обслуживает тысячи соединений: читает, режет поток байт на строки и пишет ответы.
+3. Протокол не меняется: каждая строка уходит в тот же ClientHandler.onLine(), что и в старом режиме,
+   поэтому ChatClient и telnet разницы не замечают.
+ */
+public class NioChatServer {
+    private final int port;
+    private final EventLoop[] loops;
+
+    public NioChatServer(int port, int loopCount) throws IOException {
+        this.port = port;
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+        for (int i = 0; i < loops.length; i++) loops[i] = new EventLoop("chat-loop-" + i);
+    }
+
+    // Блокирует вызывающий поток навсегда (как старый while(true) с accept)
+    public void start() throws IOException {
+        for (EventLoop loop : loops) loop.start();
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        System.out.println("Chat Server (NIO, " + loops.length + " loops) started on port " + port);
+
+        int next = 0;
+        while (true) {
+            SocketChannel ch = server.accept();
+            try {
+                ch.configureBlocking(false);
+                ch.socket().setTcpNoDelay(true);
+            } catch (IOException e) {
+                try { ch.close(); } catch (IOException ignored) {}
+                continue;
+            }
+            loops[next].register(ch);
+            next = (next + 1) % loops.length;
+        }
+    }
+
+    public static int defaultLoopCount() {
+        return Integer.getInteger("chat.nio.loops", Runtime.getRuntime().availableProcessors());
+    }
+}
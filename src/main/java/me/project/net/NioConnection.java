@@ -0,0 +1,157 @@
+package me.project.net;
+
+import me.project.ChatServer;
+import me.project.ClientHandler;
+import me.project.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+Одно клиентское соединение в NIO-режиме.
+Чтение: байты из общего буфера цикла складываются в lineBuf, на каждом '\n' строка декодируется
+и уходит в ClientHandler.onLine() (как раньше BufferedReader.readLine()). '\r' от telnet отрезается.
+Запись: ClientHandler.send() из любого потока кладет байты в ограниченную очередь клиента (OutboundQueue) и будит цикл,
+а пишет в сокет только поток цикла (пачкой, через gathering write). В inFlight берется не больше MAX_GATHER буферов,
+так что у забитого сокета растет именно ограниченная очередь, и срабатывает ее политика переполнения.
+ */
+public class NioConnection {
+    private static final int MAX_LINE = 64 * 1024;
+    private static final int MAX_GATHER = 64;
+
+    public final String ip;
+
+    private final EventLoop loop;
+    private final SocketChannel ch;
+    private final SelectionKey key;
+    private ClientHandler handler;
+
+    private ByteBuffer lineBuf = ByteBuffer.allocate(256);
+
+    private final ArrayDeque<ByteBuffer> inFlight = new ArrayDeque<>(); // трогает только поток цикла
+    private volatile int inFlightSize; // его размер для чужих потоков (/clients, метрики), обновляет цикл после записи
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private final AtomicBoolean writeRequested = new AtomicBoolean();
+    private volatile boolean closeRequested;
+    private volatile boolean closed;
+
+    NioConnection(EventLoop loop, SocketChannel ch, SelectionKey key) throws IOException {
+        this.loop = loop;
+        this.ch = ch;
+        this.key = key;
+        this.ip = ch.socket().getInetAddress().getHostAddress();
+    }
+
+    void open() {
+        handler = new ClientHandler(this);
+        ChatServer.clients.add(handler);
+        handler.onConnect();
+    }
+
+    public void wakeWriter() {
+        if (closed) return;
+        if (writeRequested.compareAndSet(false, true)) loop.requestWrite(this);
+    }
+
+    // Закрыть можно только из потока цикла, поэтому из чужих потоков — через флаг
+    public void requestClose() {
+        closeRequested = true;
+        loop.requestWrite(this);
+    }
+
+    public int inFlight() {
+        return inFlightSize;
+    }
+
+    // --- Дальше всё выполняется только в потоке цикла ---
+
+    void onReadable(ByteBuffer buf) {
+        try {
+            buf.clear();
+            int n = ch.read(buf);
+            if (n < 0) { close(); return; }
+            buf.flip();
+            while (buf.hasRemaining() && !closed) {
+                byte b = buf.get();
+                if (b == '\n') {
+                    handler.onLine(takeLine());
+                } else {
+                    if (!lineBuf.hasRemaining()) growLine();
+                    if (closed) return;
+                    lineBuf.put(b);
+                }
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private String takeLine() {
+        int len = lineBuf.position();
+        if (len > 0 && lineBuf.get(len - 1) == '\r') len--;
+        String line = new String(lineBuf.array(), 0, len, StandardCharsets.UTF_8);
+        lineBuf.clear();
+        return line;
+    }
+
+    private void growLine() {
+        if (lineBuf.capacity() >= MAX_LINE) {
+            handler.sendMessage("❌ Line too long.");
+            flush();
+            close();
+            return;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.min(MAX_LINE, lineBuf.capacity() * 2));
+        lineBuf.flip();
+        bigger.put(lineBuf);
+        lineBuf = bigger;
+    }
+
+    void flush() {
+        if (closed) return;
+        if (closeRequested) { close(); return; }
+        writeRequested.set(false);
+
+        try {
+            while (true) {
+                if (inFlight.size() < MAX_GATHER) handler.outbound.drainTo(inFlight, MAX_GATHER - inFlight.size());
+                if (inFlight.isEmpty()) break;
+                int n = 0;
+                for (ByteBuffer x : inFlight) {
+                    gather[n++] = x;
+                    if (n == MAX_GATHER) break;
+                }
+                long start = System.nanoTime();
+                ch.write(gather, 0, n);
+                Metrics.SOCKET_WRITE.recordSince(start);
+                while (!inFlight.isEmpty() && !inFlight.peek().hasRemaining()) inFlight.poll();
+                if (gather[n - 1].hasRemaining()) break; // сокет забит — ждём OP_WRITE
+            }
+            Arrays.fill(gather, null);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+
+        inFlightSize = inFlight.size();
+        int ops = key.interestOps();
+        if (inFlight.isEmpty()) key.interestOps(ops & ~SelectionKey.OP_WRITE);
+        else key.interestOps(ops | SelectionKey.OP_WRITE);
+    }
+
+    void close() {
+        if (closed) return;
+        closed = true;
+        key.cancel();
+        try { ch.close(); } catch (IOException ignored) {}
+        inFlight.clear();
+        inFlightSize = 0;
+        if (handler != null) handler.onDisconnect();
+    }
+}
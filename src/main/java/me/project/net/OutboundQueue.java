@@ -0,0 +1,152 @@
+package me.project.net;
+
+import me.project.Metrics;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+Ограниченная очередь исходящих сообщений одного клиента.
+broadcast() только кладет сюда готовые байты и сразу идет к следующему получателю,
+а в сокет пишет отдельный писатель (поток клиента или цикл NIO). Медленный клиент тормозит только сам себя.
+Что делать, если очередь заполнена (-Dchat.outq.policy):
+    DROP_OLDEST — выкинуть самое старое сообщение;
+    DISCONNECT  — отключить медленного клиента;
+    COALESCE    — схлопнуть весь хвост в одну строку "пропущено N сообщений" и продолжить с новым.
+Блокировка — ReentrantLock, а не synchronized/wait(): писатель в режиме виртуальных потоков ждет в take(),
+и ожидание на мониторе держало бы за собой поток-носитель, пока клиенту нечего слать.
+ */
+public class OutboundQueue {
+    public enum Overflow { DROP_OLDEST, DISCONNECT, COALESCE }
+
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("chat.outq.capacity", 1024);
+    public static final Overflow DEFAULT_POLICY =
+            Overflow.valueOf(System.getProperty("chat.outq.policy", "drop_oldest").toUpperCase());
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    // Все поля ниже — под lock
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+    private final int capacity;
+    private final Overflow policy;
+    private long dropped;
+    private boolean closed;
+
+    public OutboundQueue() {
+        this(DEFAULT_CAPACITY, DEFAULT_POLICY);
+    }
+
+    public OutboundQueue(int capacity, Overflow policy) {
+        this.capacity = Math.max(2, capacity);
+        this.policy = policy;
+    }
+
+    // false — клиента надо отключить (политика DISCONNECT)
+    public boolean offer(ByteBuffer b) {
+        lock.lock();
+        try {
+            return offerLocked(b);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean offerLocked(ByteBuffer b) {
+        if (closed) return true;
+        if (queue.size() >= capacity) {
+            switch (policy) {
+                case DISCONNECT:
+                    dropped += queue.size() + 1;
+                    Metrics.OUTBOUND_DROPPED.add(queue.size() + 1);
+                    closed = true; // повторные offer() до фактического отключения молча игнорируются
+                    queue.clear();
+                    notEmpty.signalAll();
+                    return false;
+                case COALESCE:
+                    int skipped = queue.size();
+                    dropped += skipped;
+                    Metrics.OUTBOUND_DROPPED.add(skipped);
+                    queue.clear();
+                    queue.add(notice(skipped));
+                    break;
+                default:
+                    queue.poll();
+                    dropped++;
+                    Metrics.OUTBOUND_DROPPED.increment();
+            }
+        }
+        queue.add(b);
+        notEmpty.signal(); // писатель у очереди один
+        return true;
+    }
+
+    public ByteBuffer poll() {
+        lock.lock();
+        try {
+            return queue.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Блокирующий вариант для писателя в режиме "поток на клиента"; null после close()
+    public ByteBuffer take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty() && !closed) notEmpty.await();
+            return queue.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int drainTo(Collection<ByteBuffer> to, int max) {
+        lock.lock();
+        try {
+            int n = 0;
+            while (n < max && !queue.isEmpty()) { to.add(queue.poll()); n++; }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            queue.clear();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long dropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static ByteBuffer notice(int skipped) {
+        String s = "\u001B[33m⚠ Пропущено " + skipped + " сообщений (медленное соединение)\u001B[0m" + System.lineSeparator();
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,131 @@
+package me.project.plugin;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+Вызов плагина через второй ABI из api.h — handle_message_buf:
+   int handle_message_buf(const char* sender, int sender_len, const char* text, int text_len, char* out, int out_cap);
+Строки приходят в direct ByteBuffer'ах (JNA передает только адрес, без выделения C-строк на каждый вызов),
+ответ плагин пишет в наш буфер — ему больше не нужно держать static/thread_local строку или терять память.
+Возвращает длину ответа; если она больше out_cap — мы увеличиваем буфер и зовем еще раз; < 0 — ошибка.
+Буферы берутся из пула на поток (вызовы идут на постоянных потоках PluginExecutor/хоста) и только растут.
+Функция привязана прямым отображением JNA (DirectBufferCall): аргументы — примитивы и direct-буферы,
+без упаковки в Object[] и разбора типов на каждый вызов. Своя копия класса на каждую библиотеку; close() ее отвязывает.
+Если в библиотеке нет handle_message_buf — bind() вернет null и работает старый handle_message.
+ */
+public final class BufferCall {
+    public static final String SYMBOL = "handle_message_buf";
+
+    private static final int INITIAL = 4 * 1024;
+    private static final int MAX_OUT = 16 * 1024 * 1024;
+
+    private static final ThreadLocal<Buffers> POOL = ThreadLocal.withInitial(Buffers::new);
+
+    // Байткод DirectBufferCall: из него для каждой библиотеки определяется свой класс
+    private static final String DIRECT = DirectBufferCall.class.getName();
+    private static volatile byte[] directBytes;
+
+    // Вход в нативную функцию; реализует только DirectBufferCall
+    public interface Entry {
+        int call(ByteBuffer sender, int senderLen, ByteBuffer text, int textLen, ByteBuffer out, int outCap);
+    }
+
+    private final Class<?> cls;
+    private final Entry fn;
+
+    private BufferCall(Class<?> cls, Entry fn) {
+        this.cls = cls;
+        this.fn = fn;
+    }
+
+    // null — плагин собран под старый ABI (или это не локальная библиотека)
+    public static BufferCall bind(Library lib) {
+        NativeLibrary nl = NativeLibs.of(lib);
+        if (nl == null) return null;
+        try {
+            nl.getFunction(SYMBOL);
+        } catch (UnsatisfiedLinkError e) {
+            return null;
+        }
+        Class<?> cls = new Isolated().define();
+        Native.register(cls, nl);
+        try {
+            return new BufferCall(cls, (Entry) cls.getConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            Native.unregister(cls);
+            throw new IllegalStateException("Cannot bind " + SYMBOL, e);
+        }
+    }
+
+    // Отвязать перед выгрузкой библиотеки: JNA держит зарегистрированные классы до unregister
+    public void close() {
+        Native.unregister(cls);
+    }
+
+    public String call(String sender, String text) {
+        Buffers b = POOL.get();
+        b.sender = put(b.sender, sender);
+        b.text = put(b.text, text);
+        int senderLen = b.sender.limit() - 1, textLen = b.text.limit() - 1;
+
+        while (true) {
+            int n = fn.call(b.sender, senderLen, b.text, textLen, b.out, b.out.capacity());
+            if (n < 0) throw new IllegalStateException(SYMBOL + " failed with code " + n);
+            if (n <= b.out.capacity()) {
+                byte[] res = new byte[n];
+                b.out.get(0, res);
+                return new String(res, StandardCharsets.UTF_8);
+            }
+            if (n > MAX_OUT) throw new IllegalStateException("Plugin reply too large: " + n + " bytes");
+            b.out = ByteBuffer.allocateDirect(n);
+        }
+    }
+
+    // Кладет строку + завершающий 0 (для плагинов, которым удобнее C-строка); limit = длина + 1
+    private static ByteBuffer put(ByteBuffer buf, String s) {
+        byte[] bytes = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        if (buf.capacity() < bytes.length + 1) buf = ByteBuffer.allocateDirect(Math.max(bytes.length + 1, buf.capacity() * 2));
+        buf.clear();
+        buf.put(bytes).put((byte) 0).flip();
+        return buf;
+    }
+
+    private static byte[] directBytes() {
+        byte[] bytes = directBytes;
+        if (bytes == null) {
+            try (InputStream in = BufferCall.class.getResourceAsStream(DirectBufferCall.class.getSimpleName() + ".class")) {
+                if (in == null) throw new IllegalStateException(DIRECT + " bytecode not found");
+                directBytes = bytes = in.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return bytes;
+    }
+
+    // Загрузчик ровно одного класса — копии DirectBufferCall; все остальное (BufferCall.Entry, JNA) — у родителя
+    private static final class Isolated extends ClassLoader {
+        Isolated() {
+            super(BufferCall.class.getClassLoader());
+        }
+
+        Class<?> define() {
+            byte[] bytes = directBytes();
+            return defineClass(DIRECT, bytes, 0, bytes.length);
+        }
+    }
+
+    private static class Buffers {
+        ByteBuffer sender = ByteBuffer.allocateDirect(256);
+        ByteBuffer text = ByteBuffer.allocateDirect(INITIAL);
+        ByteBuffer out = ByteBuffer.allocateDirect(INITIAL);
+    }
+}
@@ -0,0 +1,289 @@
+package me.project.plugin;
+
+import me.project.ChatServer;
+import me.project.EventHub;
+import me.project.LoadedPlugin;
+import me.project.Metrics;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Сборка плагинов из исходников (раньше это делал CompileHandler прямо в потоке HTTP).
+1. Кэш по содержимому: ключ — SHA-256 от нормализованного исходника (переводы строк, хвостовые пробелы),
+   флагов g++, версии компилятора и api.h. Готовые библиотеки лежат в plugins/cache/<ключ>.so.
+   Тот же код второй раз не компилируется — библиотека просто копируется из кэша.
+2. Промахи идут в пул сборки (chat.compile.threads, по умолчанию по числу ядер) с ограниченной
+   очередью (chat.compile.queue). Одинаковые исходники, которые уже собираются, ждут ту же сборку.
+3. Каждая сборка — задача с номером; админка опрашивает ее через GET /compile?job=N,
+   смена состояния еще и публикуется событием compile в /events.
+4. Старый plugins/<имя>.so не трогается, пока новая сборка не удалась: g++ пишет во временный файл,
+   который потом атомарно переименовывается.
+В кэше держим последние chat.compile.cacheEntries библиотек (по времени последнего использования).
+ */
+public class CompileService {
+    public static final int THREADS = Integer.getInteger("chat.compile.threads", Runtime.getRuntime().availableProcessors());
+    public static final int QUEUE = Integer.getInteger("chat.compile.queue", 32);
+    public static final int CACHE_ENTRIES = Integer.getInteger("chat.compile.cacheEntries", 64);
+
+    private static final String PRELUDE = "#include \"api.h\"\n#include <string>\n#include <vector>\nusing namespace std;\n";
+    private static final int KEEP_JOBS = 200;
+
+    public enum State { QUEUED, RUNNING, DONE, FAILED }
+
+    public static class Job {
+        public final long id;
+        public final String filename;
+        public final long created = System.currentTimeMillis();
+        public volatile State state = State.QUEUED;
+        public volatile boolean cached;
+        public volatile String message = "";
+
+        Job(long id, String filename) {
+            this.id = id;
+            this.filename = filename;
+        }
+    }
+
+    public final LongAdder hits = new LongAdder();
+    public final LongAdder misses = new LongAdder();
+
+    private final File pluginDir;
+    private final File cacheDir;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, Job> jobs = new ConcurrentHashMap<>();
+    // Ключ -> сборка, которая сейчас идет (повторный запрос с тем же кодом ждет ее)
+    private final Map<String, CompletableFuture<File>> building = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor pool;
+    private volatile String compilerVersion;
+
+    public CompileService(File pluginDir) {
+        this.pluginDir = pluginDir;
+        this.cacheDir = new File(pluginDir, "cache");
+        if (!cacheDir.exists()) cacheDir.mkdirs();
+        File[] junk = cacheDir.listFiles((d, name) -> name.contains(".tmp"));
+        if (junk != null) for (File f : junk) f.delete();
+
+        AtomicLong n = new AtomicLong();
+        this.pool = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, QUEUE)),
+                r -> {
+                    Thread t = new Thread(r, "compile-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public Job job(long id) {
+        return jobs.get(id);
+    }
+
+    public int queued() {
+        return pool.getQueue().size();
+    }
+
+    // Ставит сборку в очередь (или сразу берет из кэша). RejectedExecutionException — очередь полна
+    public Job submit(String filename, String code) throws IOException {
+        if (filename == null || !filename.matches("[A-Za-z0-9_.-]{1,64}") || filename.startsWith(".")) {
+            throw new IOException("Bad plugin file name");
+        }
+        if (code == null) code = "";
+        String source = PRELUDE + normalize(code);
+        List<String> flags = flags();
+        String key = key(source, flags);
+
+        Job job = new Job(ids.incrementAndGet(), filename);
+        File cached = new File(cacheDir, key + ChatServer.LIB_EXT);
+        if (cached.exists()) {
+            hits.increment();
+            Metrics.COMPILES.labels("cached").increment();
+            job.cached = true;
+            remember(job);
+            cached.setLastModified(System.currentTimeMillis());
+            install(job, cached);
+            return job;
+        }
+
+        misses.increment();
+        CompletableFuture<File> build = new CompletableFuture<>();
+        CompletableFuture<File> running = building.putIfAbsent(key, build);
+        if (running == null) {
+            String src = source;
+            try {
+                pool.execute(() -> {
+                    update(job, State.RUNNING, "");
+                    long start = System.nanoTime();
+                    try {
+                        build.complete(build(key, src, flags));
+                        Metrics.COMPILES.labels("built").increment();
+                    } catch (Throwable e) {
+                        build.completeExceptionally(e);
+                        Metrics.COMPILES.labels("failed").increment();
+                    } finally {
+                        Metrics.COMPILE.recordSince(start);
+                        building.remove(key);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                building.remove(key);
+                Metrics.COMPILES.labels("rejected").increment();
+                throw e;
+            }
+            running = build;
+        } else {
+            update(job, State.RUNNING, "");
+        }
+        remember(job);
+        running.whenComplete((lib, err) -> {
+            if (err == null) {
+                install(job, lib);
+            } else {
+                update(job, State.FAILED, PluginExecutor.unwrap(err).getMessage());
+            }
+        });
+        return job;
+    }
+
+    // --- Сборка ---
+
+    private File build(String key, String source, List<String> flags) throws IOException, InterruptedException {
+        File src = new File(cacheDir, key + ".tmp-" + Thread.currentThread().getId() + ".cpp");
+        File tmp = new File(cacheDir, key + ".tmp-" + Thread.currentThread().getId() + ChatServer.LIB_EXT);
+        try {
+            Files.writeString(src.toPath(), source, StandardCharsets.UTF_8);
+
+            List<String> cmd = new ArrayList<>(Arrays.asList("g++", "-shared", "-o", tmp.getAbsolutePath(), src.getAbsolutePath()));
+            cmd.addAll(flags);
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.redirectErrorStream(true);
+            pb.directory(new File("."));
+            Process p = pb.start();
+            String output = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+
+            if (p.waitFor() != 0) throw new IOException("Compile Error:\n" + output);
+
+            File lib = new File(cacheDir, key + ChatServer.LIB_EXT);
+            move(tmp, lib);
+            prune();
+            return lib;
+        } finally {
+            src.delete();
+            tmp.delete();
+        }
+    }
+
+    // Копия из кэша в plugins/<имя>.so (через временный файл и атомарное переименование) + загрузка
+    private void install(Job job, File lib) {
+        try {
+            File out = new File(pluginDir, job.filename + ChatServer.LIB_EXT);
+            File tmp = new File(pluginDir, job.filename + ".tmp-" + job.id);
+            try {
+                Files.copy(lib.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                move(tmp, out);
+            } finally {
+                tmp.delete();
+            }
+
+            LoadedPlugin lp = ChatServer.loadPluginSafe(out);
+            if (lp != null) {
+                ChatServer.broadcast("🔌 Плагин #" + lp.name + " скомпилирован и загружен!", "System", true);
+                update(job, State.DONE, job.cached ? "Success (из кэша)" : "Success");
+            } else {
+                update(job, State.FAILED, "Error: Plugin loaded but returned null (check console)");
+            }
+        } catch (Exception e) {
+            update(job, State.FAILED, "System Error: " + e.getMessage());
+        }
+    }
+
+    // Сообщение пишем раньше состояния: кто увидел DONE/FAILED, тот увидит и текст
+    private static void update(Job job, State state, String message) {
+        job.message = message;
+        job.state = state;
+        EventHub.publish("compile", "{\"job\":" + job.id + ", \"file\":" + EventHub.json(job.filename)
+                + ", \"state\":\"" + state + "\", \"message\":" + EventHub.json(message) + "}");
+    }
+
+    private static void move(File from, File to) throws IOException {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Оставляем CACHE_ENTRIES самых недавно использованных библиотек
+    private synchronized void prune() {
+        File[] libs = cacheDir.listFiles((d, name) -> name.endsWith(ChatServer.LIB_EXT) && !name.contains(".tmp"));
+        if (libs == null || libs.length <= CACHE_ENTRIES) return;
+        Arrays.sort(libs, Comparator.comparingLong(File::lastModified).reversed());
+        for (int i = CACHE_ENTRIES; i < libs.length; i++) libs[i].delete();
+    }
+
+    private void remember(Job job) {
+        jobs.put(job.id, job);
+        if (jobs.size() > KEEP_JOBS) {
+            long oldest = job.id - KEEP_JOBS;
+            jobs.keySet().removeIf(id -> id <= oldest);
+        }
+    }
+
+    // --- Ключ кэша ---
+
+    private static List<String> flags() {
+        List<String> flags = new ArrayList<>(List.of("-I."));
+        if (!ChatServer.IS_WIN) flags.add("-fPIC");
+        if (ChatServer.IS_MAC) { flags.add("-undefined"); flags.add("dynamic_lookup"); }
+        return flags;
+    }
+
+    // Разница только в переводах строк и пробелах в конце строк не должна давать новую сборку
+    static String normalize(String code) {
+        String[] lines = code.replace("\r\n", "\n").replace('\r', '\n').split("\n", -1);
+        StringBuilder sb = new StringBuilder(code.length());
+        for (String line : lines) sb.append(line.stripTrailing()).append('\n');
+        int end = sb.length();
+        while (end > 0 && sb.charAt(end - 1) == '\n') end--;
+        sb.setLength(end);
+        return sb.append('\n').toString();
+    }
+
+    private String key(String source, List<String> flags) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(source.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update(String.join(" ", flags).getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update(compilerVersion().getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            File api = new File("api.h");
+            if (api.exists()) md.update(Files.readAllBytes(api.toPath()));
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String compilerVersion() {
+        String v = compilerVersion;
+        if (v != null) return v;
+        try {
+            Process p = new ProcessBuilder("g++", "--version").redirectErrorStream(true).start();
+            v = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8).lines().findFirst().orElse("");
+            p.waitFor();
+        } catch (Exception e) {
+            v = "unknown";
+        }
+        compilerVersion = v;
+        return v;
+    }
+}
@@ -0,0 +1,19 @@
+package me.project.plugin;
+
+import java.nio.ByteBuffer;
+
+/*
+Прямое отображение JNA (Native.register) для handle_message_buf: без прокси, Object[] и поиска функции на каждый вызов.
+Native.register привязывает native-методы класса к одной библиотеке, поэтому BufferCall определяет
+свою копию этого класса в отдельном загрузчике на каждую библиотеку. Напрямую его не использовать.
+ */
+public final class DirectBufferCall implements BufferCall.Entry {
+    public DirectBufferCall() {}
+
+    public static native int handle_message_buf(ByteBuffer sender, int senderLen, ByteBuffer text, int textLen, ByteBuffer out, int outCap);
+
+    @Override
+    public int call(ByteBuffer sender, int senderLen, ByteBuffer text, int textLen, ByteBuffer out, int outCap) {
+        return handle_message_buf(sender, senderLen, text, textLen, out, outCap);
+    }
+}
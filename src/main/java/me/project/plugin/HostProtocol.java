@@ -0,0 +1,175 @@
+package me.project.plugin;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/*
+Протокол между сервером и процессом-хостом плагинов (Unix domain socket: stdout для этого не годится —
+при падении JVM пишет туда свой отчет и ломает кадры).
+Кадр: [int длина остального][byte тип][long id запроса][int id плагина][short число строк]{[int длина|-1][utf8]}...
+Запросы: LOAD(путь) -> OK(имя, описание, cache_ttl, cache_per_sender, есть ли on_message, его фаза);
+         CALL(отправитель, текст) -> OK(результат); HOOK(отправитель, комната, текст) -> OK(результат on_message);
+         UNLOAD -> OK.
+Ошибка на любой запрос: ERR(сообщение). Ответы приходят в любом порядке и сопоставляются по id (pipelining).
+ */
+final class HostProtocol {
+    static final byte LOAD = 1;
+    static final byte CALL = 2;
+    static final byte UNLOAD = 3;
+    static final byte HOOK = 4;
+    static final byte OK = 10;
+    static final byte ERR = 11;
+
+    private static final int MAX_FRAME = 16 * 1024 * 1024;
+
+    private HostProtocol() {}
+
+    static final class Frame {
+        final byte type;
+        final long id;
+        final int pluginId;
+        final String[] strings;
+
+        Frame(byte type, long id, int pluginId, String[] strings) {
+            this.type = type;
+            this.id = id;
+            this.pluginId = pluginId;
+            this.strings = strings;
+        }
+    }
+
+    static byte[] encode(byte type, long id, int pluginId, String... strings) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); // длина, заполним в конце
+            out.writeByte(type);
+            out.writeLong(id);
+            out.writeInt(pluginId);
+            out.writeShort(strings.length);
+            for (String s : strings) {
+                if (s == null) { out.writeInt(-1); continue; }
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(b.length);
+                out.write(b);
+            }
+            byte[] frame = bytes.toByteArray();
+            int len = frame.length - 4;
+            frame[0] = (byte) (len >>> 24);
+            frame[1] = (byte) (len >>> 16);
+            frame[2] = (byte) (len >>> 8);
+            frame[3] = (byte) len;
+            return frame;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // ByteArrayOutputStream не бросает
+        }
+    }
+
+    // null — поток закрыт. Кадр читается целиком по длине, поэтому мусор в канале не превратится в гигантский массив
+    static Frame read(DataInputStream in) throws IOException {
+        int len;
+        try {
+            len = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (len < 15 || len > MAX_FRAME) throw new IOException("Corrupt frame (length " + len + ")");
+        byte[] body = new byte[len];
+        in.readFully(body);
+
+        DataInputStream b = new DataInputStream(new ByteArrayInputStream(body));
+        byte type = b.readByte();
+        long id = b.readLong();
+        int pluginId = b.readInt();
+        String[] strings = new String[b.readUnsignedShort()];
+        for (int i = 0; i < strings.length; i++) {
+            int n = b.readInt();
+            if (n < 0) continue;
+            if (n > b.available()) throw new IOException("Corrupt frame (string length " + n + ")");
+            byte[] s = new byte[n];
+            b.readFully(s);
+            strings[i] = new String(s, StandardCharsets.UTF_8);
+        }
+        return new Frame(type, id, pluginId, strings);
+    }
+
+    // Потоки поверх SocketChannel без общей блокировки на чтение и запись
+    // (Channels.newInputStream/newOutputStream делят blockingLock, и ждущий read заблокировал бы write)
+    static InputStream in(SocketChannel ch) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return ch.read(ByteBuffer.wrap(b, off, len));
+            }
+        };
+    }
+
+    static OutputStream out(SocketChannel ch) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+                while (buf.hasRemaining()) ch.write(buf);
+            }
+        };
+    }
+
+    /*
+    Пишущая сторона канала: кадры из любых потоков складываются в очередь, отдельный поток забирает
+    всё накопившееся, пишет подряд и делает один flush на пачку.
+     */
+    static final class Writer implements Runnable {
+        private static final byte[] POISON = new byte[0];
+
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+        private final OutputStream out;
+
+        Writer(OutputStream out) {
+            this.out = new BufferedOutputStream(out, 64 * 1024);
+        }
+
+        void send(byte[] frame) {
+            queue.add(frame);
+        }
+
+        void close() {
+            queue.add(POISON);
+        }
+
+        @Override
+        public void run() {
+            List<byte[]> batch = new ArrayList<>();
+            try {
+                while (true) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch);
+                    for (byte[] f : batch) {
+                        if (f == POISON) { out.flush(); return; }
+                        out.write(f);
+                    }
+                    out.flush();
+                    batch.clear();
+                }
+            } catch (IOException | InterruptedException e) {
+                // Канал закрыт — о падении узнает читающая сторона
+            }
+        }
+    }
+}
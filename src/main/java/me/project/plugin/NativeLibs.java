@@ -0,0 +1,49 @@
+package me.project.plugin;
+
+import com.sun.jna.Library;
+import com.sun.jna.NativeLibrary;
+
+import java.lang.reflect.Proxy;
+import java.util.function.IntSupplier;
+
+/*
+Мелочи вокруг JNA, которые нужны и серверу, и процессу-хосту.
+ */
+public final class NativeLibs {
+    private NativeLibs() {}
+
+    // Библиотека, к которой привязан прокси Native.load(...), или null (например, для удаленного плагина)
+    public static NativeLibrary of(Library lib) {
+        if (lib == null || !Proxy.isProxyClass(lib.getClass())) return null;
+        Object h = Proxy.getInvocationHandler(lib);
+        return h instanceof Library.Handler ? ((Library.Handler) h).getNativeLibrary() : null;
+    }
+
+    // Необязательная функция плагина: если ее нет в библиотеке — 0
+    public static int optional(IntSupplier export) {
+        try {
+            return export.getAsInt();
+        } catch (UnsatisfiedLinkError e) {
+            return 0;
+        }
+    }
+
+    // Есть ли в библиотеке функция с таким именем (для удаленного плагина — всегда false)
+    public static boolean has(Library lib, String symbol) {
+        NativeLibrary nl = of(lib);
+        if (nl == null) return false;
+        try {
+            nl.getFunction(symbol);
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            return false;
+        }
+    }
+
+    // Выгружает .so/.dll из процесса. После этого любые вызовы через lib недопустимы
+    public static void dispose(Library lib) {
+        NativeLibrary nl = of(lib);
+        if (nl == null) return;
+        try { nl.close(); } catch (Throwable e) { System.err.println("Failed to dispose " + nl.getName() + ": " + e.getMessage()); }
+    }
+}
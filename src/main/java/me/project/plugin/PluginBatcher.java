@@ -0,0 +1,148 @@
+package me.project.plugin;
+
+import com.sun.jna.Function;
+import com.sun.jna.NativeLibrary;
+import me.project.PluginInterface;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/*
+Пакетный вызов плагина через handle_batch (необязательная функция из api.h).
+Вызовы одного плагина копятся до chat.plugin.batchSize штук или chat.plugin.batchMicros микросекунд
+с первого вызова в пачке — что наступит раньше. Потом пачка одной задачей уходит в PluginExecutor плагина,
+нативная сторона вызывается один раз, и каждый ответ возвращается в свой CompletableFuture —
+то есть в тот ClientHandler, который вызвал команду.
+Ответы плагин пишет подряд в out, длину каждого — в out_lens[i]. Не влезло — зовем еще раз с буфером побольше.
+handle_batch не входит в PluginInterface: функцию берем из самой библиотеки, так что у удаленного плагина
+(и у любой не-JNA реализации) пачек просто нет.
+ */
+public class PluginBatcher {
+    public static final String SYMBOL = "handle_batch";
+    public static final int MAX_BATCH = Integer.getInteger("chat.plugin.batchSize", 32);
+    public static final long WINDOW_MICROS = Long.getLong("chat.plugin.batchMicros", 2000);
+
+    private static final int MAX_OUT = 64 * 1024 * 1024;
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "plugin-batch-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final ThreadLocal<ByteBuffer[]> OUT = ThreadLocal.withInitial(() -> new ByteBuffer[]{ByteBuffer.allocateDirect(64 * 1024)});
+
+    private final Function fn;
+    private final PluginExecutor executor;
+
+    // Под synchronized(this)
+    private List<Item> pending = new ArrayList<>();
+    private ScheduledFuture<?> timer;
+
+    private static class Item {
+        final String sender, text;
+        final Runnable done;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+
+        Item(String sender, String text, Runnable done) {
+            this.sender = sender;
+            this.text = text;
+            this.done = done;
+        }
+    }
+
+    private PluginBatcher(Function fn, PluginExecutor executor) {
+        this.fn = fn;
+        this.executor = executor;
+    }
+
+    // null — плагин не экспортирует handle_batch (или это не локальная библиотека)
+    public static PluginBatcher bind(PluginInterface lib, PluginExecutor executor) {
+        NativeLibrary nl = NativeLibs.of(lib);
+        if (nl == null) return null;
+        try {
+            return new PluginBatcher(nl.getFunction(SYMBOL), executor);
+        } catch (UnsatisfiedLinkError e) {
+            return null;
+        }
+    }
+
+    // done — как в PluginExecutor.submit: когда пачка с этим вызовом отработала в нативном коде
+    public CompletableFuture<String> submit(String sender, String text, Runnable done) {
+        Item item = new Item(sender, text, done);
+        List<Item> full = null;
+        synchronized (this) {
+            pending.add(item);
+            if (pending.size() >= MAX_BATCH) full = takePending();
+            else if (pending.size() == 1) timer = TIMER.schedule(this::flush, WINDOW_MICROS, TimeUnit.MICROSECONDS);
+        }
+        if (full != null) run(full);
+        return item.result;
+    }
+
+    // Отправляет накопленное, не дожидаясь окна (например, перед выгрузкой версии плагина)
+    public void flush() {
+        List<Item> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) return;
+            batch = takePending();
+        }
+        run(batch);
+    }
+
+    private List<Item> takePending() {
+        List<Item> batch = pending;
+        pending = new ArrayList<>(MAX_BATCH);
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+        return batch;
+    }
+
+    private void run(List<Item> batch) {
+        executor.submit(() -> invoke(batch), () -> {
+            for (Item item : batch) if (item.done != null) item.done.run();
+        }).whenComplete((res, err) -> {
+            for (int i = 0; i < batch.size(); i++) {
+                if (err != null) batch.get(i).result.completeExceptionally(err);
+                else batch.get(i).result.complete(res[i]);
+            }
+        });
+    }
+
+    private String[] invoke(List<Item> batch) {
+        int n = batch.size();
+        String[] senders = new String[n], texts = new String[n];
+        for (int i = 0; i < n; i++) {
+            senders[i] = batch.get(i).sender;
+            texts[i] = batch.get(i).text;
+        }
+        int[] lens = new int[n];
+        ByteBuffer[] holder = OUT.get();
+        while (true) {
+            ByteBuffer out = holder[0];
+            // Один переход в нативный код на всю пачку, поэтому обычный Function.invoke здесь не узкое место
+            int total = fn.invokeInt(new Object[]{n, senders, texts, out, out.capacity(), lens});
+            if (total < 0) throw new IllegalStateException(SYMBOL + " failed with code " + total);
+            if (total > out.capacity()) {
+                if (total > MAX_OUT) throw new IllegalStateException("Plugin batch reply too large: " + total + " bytes");
+                holder[0] = ByteBuffer.allocateDirect(total);
+                continue;
+            }
+            String[] res = new String[n];
+            int pos = 0;
+            for (int i = 0; i < n; i++) {
+                if (lens[i] < 0 || pos + lens[i] > total) throw new IllegalStateException(SYMBOL + " returned bad length for item " + i);
+                byte[] b = new byte[lens[i]];
+                out.get(pos, b);
+                res[i] = new String(b, StandardCharsets.UTF_8);
+                pos += lens[i];
+            }
+            return res;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package me.project.plugin;
+
+import me.project.ChatServer;
+import me.project.EventHub;
+import me.project.LoadedPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/*
+Каталог плагинов для админки (/list) — в памяти, без обхода диска на каждый запрос.
+1. Что лежит в папке plugins (библиотеки и их .txt) узнаем один раз при старте, дальше — из WatchService
+   (фоновый поток plugin-catalog) и из прямых уведомлений сервера: загрузка, выключение, удаление, компиляция.
+2. Любое изменение только помечает каталог устаревшим. JSON собирается заново при следующем запросе,
+   один раз на изменение: O(файлов + плагинов), без чтения файлов. Остальные запросы отдают готовые байты.
+3. Каждое изменение публикуется событием plugins в /events (см. EventHub).
+4. У снимка есть ETag (CRC32 содержимого) — опрос с If-None-Match получает 304 без тела.
+ */
+public class PluginCatalog {
+    public static class Snapshot {
+        public final byte[] json;
+        public final String etag;
+
+        Snapshot(byte[] json) {
+            CRC32 crc = new CRC32();
+            crc.update(json);
+            this.json = json;
+            this.etag = "\"" + Long.toHexString(crc.getValue()) + "-" + json.length + "\"";
+        }
+    }
+
+    private static class Meta {
+        final String name, description;
+
+        Meta(String name, String description) {
+            this.name = name;
+            this.description = description;
+        }
+    }
+
+    private final File dir;
+
+    // Под synchronized(this): библиотеки на диске -> их .txt (null, если .txt нет)
+    private final Map<String, Meta> files = new LinkedHashMap<>();
+    private volatile boolean dirty = true;
+    private volatile Snapshot snapshot;
+
+    public PluginCatalog(File dir) {
+        this.dir = dir;
+        File[] libs = dir.listFiles((d, name) -> isLibrary(name));
+        if (libs != null) {
+            synchronized (this) {
+                for (File f : libs) files.put(f.getName(), readMeta(f.getName()));
+            }
+        }
+        Thread w = new Thread(this::watchLoop, "plugin-catalog");
+        w.setDaemon(true);
+        w.start();
+    }
+
+    // --- Уведомления от сервера ---
+
+    // Загрузили, выключили или подменили версию: поменялся статус
+    public synchronized void changed() {
+        touch();
+    }
+
+    // Библиотека загружена, имя и описание известны (и только что записаны в .txt)
+    public synchronized void loaded(String filename, String name, String description) {
+        files.put(filename, new Meta(name, description));
+        touch();
+    }
+
+    public synchronized void removed(String filename) {
+        files.remove(filename);
+        touch();
+    }
+
+    // Под synchronized(this). Админкам, подписанным на /events, сразу сообщаем, что список устарел
+    private void touch() {
+        dirty = true;
+        EventHub.publish("plugins", "{}");
+    }
+
+    // --- Чтение ---
+
+    public Snapshot snapshot() {
+        Snapshot s = snapshot;
+        return s != null && !dirty ? s : rebuild();
+    }
+
+    private synchronized Snapshot rebuild() {
+        if (!dirty && snapshot != null) return snapshot;
+        dirty = false;
+
+        Map<String, LoadedPlugin> active = new HashMap<>();
+        for (LoadedPlugin p : ChatServer.plugins.values()) active.put(p.filename, p);
+
+        StringBuilder json = new StringBuilder("[");
+        int i = 0;
+        for (Map.Entry<String, Meta> e : files.entrySet()) {
+            LoadedPlugin p = active.get(e.getKey());
+            Meta meta = e.getValue();
+            String name, desc, status, cmdName;
+            if (p != null) {
+                name = p.name;
+                desc = p.description;
+                status = "active";
+                cmdName = p.name;
+            } else if (meta != null) {
+                name = meta.name;
+                desc = meta.description;
+                status = "inactive";
+                cmdName = meta.name;
+            } else {
+                // Если .txt нет (старые плагины)
+                name = "Unknown (Unloaded)";
+                desc = "Включите плагин, чтобы обновить инфо";
+                status = "inactive";
+                cmdName = "";
+            }
+            if (i++ > 0) json.append(",");
+            json.append(String.format(
+                    "{\"filename\":\"%s\", \"name\":\"%s\", \"desc\":\"%s\", \"status\":\"%s\", \"cmd\":\"%s\"}",
+                    escape(e.getKey()), escape(name), escape(desc), status, escape(cmdName)
+            ));
+        }
+        json.append("]");
+        snapshot = new Snapshot(json.toString().getBytes(StandardCharsets.UTF_8));
+        return snapshot;
+    }
+
+    // --- Слежение за папкой ---
+
+    private void watchLoop() {
+        try (WatchService ws = FileSystems.getDefault().newWatchService()) {
+            dir.toPath().register(ws, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            while (true) {
+                WatchKey key = ws.take();
+                for (WatchEvent<?> ev : key.pollEvents()) {
+                    if (ev.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rescan();
+                        continue;
+                    }
+                    onEvent(ev.kind(), ((Path) ev.context()).toString());
+                }
+                if (!key.reset()) return;
+            }
+        } catch (InterruptedException ignored) {
+        } catch (IOException e) {
+            System.err.println("[Catalog] Watch failed: " + e.getMessage());
+        }
+    }
+
+    private void onEvent(WatchEvent.Kind<?> kind, String name) {
+        boolean deleted = kind == StandardWatchEventKinds.ENTRY_DELETE;
+        if (isLibrary(name)) {
+            if (deleted) removed(name);
+            else {
+                Meta m = readMeta(name);
+                synchronized (this) {
+                    files.put(name, m);
+                    touch();
+                }
+            }
+        } else if (name.endsWith(".txt") && isLibrary(name.substring(0, name.length() - 4))) {
+            String lib = name.substring(0, name.length() - 4);
+            Meta m = deleted ? null : readMeta(lib);
+            synchronized (this) {
+                if (files.containsKey(lib)) {
+                    files.put(lib, m);
+                    touch();
+                }
+            }
+        }
+    }
+
+    // Переполнение очереди событий: проще перечитать папку целиком
+    private void rescan() {
+        Map<String, Meta> fresh = new LinkedHashMap<>();
+        File[] libs = dir.listFiles((d, name) -> isLibrary(name));
+        if (libs != null) for (File f : libs) fresh.put(f.getName(), readMeta(f.getName()));
+        synchronized (this) {
+            files.clear();
+            files.putAll(fresh);
+            touch();
+        }
+    }
+
+    private static boolean isLibrary(String name) {
+        return name.endsWith(ChatServer.LIB_EXT) && !name.contains("loaded_copy_") && !name.contains(".tmp");
+    }
+
+    private Meta readMeta(String lib) {
+        File meta = new File(dir, lib + ".txt");
+        if (!meta.exists()) return null;
+        try {
+            List<String> lines = Files.readAllLines(meta.toPath(), StandardCharsets.UTF_8);
+            return new Meta(lines.size() > 0 ? lines.get(0) : "Unknown", lines.size() > 1 ? lines.get(1) : "Нет описания");
+        } catch (IOException e) {
+            return new Meta("Error reading meta", e.getMessage());
+        }
+    }
+
+    private static String escape(String s) {
+        if (s == null) return "";
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", " ");
+    }
+}
@@ -0,0 +1,133 @@
+package me.project.plugin;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/*
+Изоляция вызовов плагина от потоков чата.
+У каждого плагина свой маленький пул (chat.plugin.threads) и ограниченная очередь (chat.plugin.queue).
+Вызов возвращает CompletableFuture, поток клиента / цикл NIO дальше не ждет.
+    Очередь полна  -> RejectedExecutionException сразу, пользователь получает "перегружен".
+    Дольше дедлайна -> TimeoutException (chat.plugin.timeoutMs). Нативный код прервать нельзя: поток так и
+                       остается занятым, но чат уже ответил пользователю. Если плагин зависает насовсем,
+                       его пул кончится и дальше будут только отказы — перезагрузка плагина создаст новый пул.
+Счетчики (вызовы, отказы, таймауты, ошибки, время) отдаются через /stats.
+ */
+public class PluginExecutor {
+    public static final int THREADS = Integer.getInteger("chat.plugin.threads", 2);
+    public static final int QUEUE = Integer.getInteger("chat.plugin.queue", 64);
+    public static final long TIMEOUT_MS = Long.getLong("chat.plugin.timeoutMs", 2000);
+
+    public final LongAdder calls = new LongAdder();
+    public final LongAdder rejected = new LongAdder();
+    public final LongAdder timeouts = new LongAdder();
+    public final LongAdder errors = new LongAdder();
+    public final LongAdder totalNanos = new LongAdder();
+    public final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+    private final ThreadPoolExecutor pool;
+    private final long timeoutMs;
+
+    public PluginExecutor(String name) {
+        this(name, THREADS, QUEUE, TIMEOUT_MS);
+    }
+
+    public PluginExecutor(String name, int threads, int queue, long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        AtomicInteger n = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queue)),
+                r -> {
+                    Thread t = new Thread(r, "plugin-" + name + "-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> call) {
+        return submit(call, null);
+    }
+
+    // done (если не null) вызывается ровно один раз, когда нативный вызов действительно закончился
+    // или задача не попала в очередь. Не по таймауту: зависший вызов держит плагин, пока не вернется
+    public <T> CompletableFuture<T> submit(Supplier<T> call, Runnable done) {
+        calls.increment();
+        CompletableFuture<T> result;
+        try {
+            result = CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                try {
+                    return call.get();
+                } finally {
+                    long took = System.nanoTime() - start;
+                    totalNanos.add(took);
+                    maxNanos.accumulate(took);
+                    if (done != null) done.run();
+                }
+            }, pool);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            if (done != null) done.run();
+            return CompletableFuture.failedFuture(e);
+        }
+        return result.orTimeout(timeoutMs, TimeUnit.MILLISECONDS).whenComplete((r, err) -> {
+            if (err == null) return;
+            if (unwrap(err) instanceof TimeoutException) timeouts.increment();
+            else errors.increment();
+        });
+    }
+
+    // Вызов, который сам отдает future (плагин в процессе-хосте): поток пула не занят ожиданием ответа,
+    // а дедлайн, счетчики и done — те же, что у submit
+    public <T> CompletableFuture<T> submitAsync(Supplier<CompletableFuture<T>> call, Runnable done) {
+        calls.increment();
+        long start = System.nanoTime();
+        CompletableFuture<T> reply;
+        try {
+            reply = call.get();
+        } catch (Throwable e) {
+            reply = CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<T> result = reply.whenComplete((r, err) -> {
+            long took = System.nanoTime() - start;
+            totalNanos.add(took);
+            maxNanos.accumulate(took);
+            if (done != null) done.run();
+        });
+        return result.orTimeout(timeoutMs, TimeUnit.MILLISECONDS).whenComplete((r, err) -> {
+            if (err == null) return;
+            if (unwrap(err) instanceof TimeoutException) timeouts.increment();
+            else errors.increment();
+        });
+    }
+
+    public long timeoutMs() {
+        return timeoutMs;
+    }
+
+    public int queued() {
+        return pool.getQueue().size();
+    }
+
+    public int active() {
+        return pool.getActiveCount();
+    }
+
+    // Заранее поднимаем потоки, чтобы первый вызов новой версии плагина не ждал их создания
+    public void warm() {
+        pool.prestartAllCoreThreads();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public static Throwable unwrap(Throwable e) {
+        while (e instanceof CompletionException && e.getCause() != null) e = e.getCause();
+        return e;
+    }
+}
@@ -0,0 +1,119 @@
+package me.project.plugin;
+
+import com.sun.jna.Native;
+import me.project.PluginInterface;
+
+import java.io.*;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+Дочерний процесс, в котором живут нативные плагины (режим -Dchat.plugins.hosts=N).
+Если C++ код упадет с segfault, умрет только этот процесс — сервер чата его перезапустит.
+Связь с сервером — Unix domain socket, путь к которому передан первым аргументом.
+Вызовы выполняются параллельно на пуле по числу ядер, ответы уходят пачками через HostProtocol.Writer.
+ */
+public class PluginHost {
+    private final Map<Integer, PluginInterface> libs = new ConcurrentHashMap<>();
+    private final Map<Integer, BufferCall> bufferCalls = new ConcurrentHashMap<>();
+    private final HostProtocol.Writer writer;
+    private final ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+    private PluginHost(OutputStream out) {
+        this.writer = new HostProtocol.Writer(out);
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("jna.encoding", "UTF-8");
+        SocketChannel ch = SocketChannel.open(UnixDomainSocketAddress.of(args[0]));
+
+        PluginHost host = new PluginHost(HostProtocol.out(ch));
+        Thread w = new Thread(host.writer, "host-writer");
+        w.setDaemon(true);
+        w.start();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(HostProtocol.in(ch), 64 * 1024));
+        HostProtocol.Frame f;
+        while ((f = HostProtocol.read(in)) != null) host.dispatch(f);
+        // Сервер закрыл канал (или умер) — нам тоже пора
+        System.exit(0);
+    }
+
+    private void dispatch(HostProtocol.Frame f) {
+        switch (f.type) {
+            case HostProtocol.LOAD:
+                load(f);
+                break;
+            case HostProtocol.CALL:
+                workers.execute(() -> call(f));
+                break;
+            case HostProtocol.HOOK:
+                workers.execute(() -> hook(f));
+                break;
+            case HostProtocol.UNLOAD:
+                unload(f);
+                break;
+            default:
+                reply(HostProtocol.ERR, f, "Unknown request " + f.type);
+        }
+    }
+
+    private void load(HostProtocol.Frame f) {
+        try {
+            // Повторный LOAD того же id (хост перезапускался, пока плагин добавляли) — берем уже загруженный
+            PluginInterface lib = libs.computeIfAbsent(f.pluginId, k -> Native.load(f.strings[0], PluginInterface.class));
+            if (!bufferCalls.containsKey(f.pluginId)) {
+                BufferCall bc = BufferCall.bind(lib);
+                if (bc != null) bufferCalls.put(f.pluginId, bc);
+            }
+            reply(HostProtocol.OK, f, lib.get_name(), lib.get_description(),
+                    String.valueOf(NativeLibs.optional(lib::cache_ttl)), String.valueOf(NativeLibs.optional(lib::cache_per_sender)),
+                    NativeLibs.has(lib, "on_message") ? "1" : "0", String.valueOf(NativeLibs.optional(lib::on_message_phase)));
+        } catch (Throwable e) {
+            reply(HostProtocol.ERR, f, "Load failed: " + e.getMessage());
+        }
+    }
+
+    private void call(HostProtocol.Frame f) {
+        PluginInterface lib = libs.get(f.pluginId);
+        if (lib == null) {
+            reply(HostProtocol.ERR, f, "Plugin " + f.pluginId + " is not loaded in host");
+            return;
+        }
+        try {
+            BufferCall bc = bufferCalls.get(f.pluginId);
+            String res = bc != null ? bc.call(f.strings[0], f.strings[1]) : lib.handle_message(f.strings[0], f.strings[1]);
+            reply(HostProtocol.OK, f, res);
+        } catch (Throwable e) {
+            reply(HostProtocol.ERR, f, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void hook(HostProtocol.Frame f) {
+        PluginInterface lib = libs.get(f.pluginId);
+        if (lib == null) {
+            reply(HostProtocol.ERR, f, "Plugin " + f.pluginId + " is not loaded in host");
+            return;
+        }
+        try {
+            reply(HostProtocol.OK, f, lib.on_message(f.strings[0], f.strings[1], f.strings[2]));
+        } catch (Throwable e) {
+            reply(HostProtocol.ERR, f, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void unload(HostProtocol.Frame f) {
+        BufferCall bc = bufferCalls.remove(f.pluginId);
+        if (bc != null) bc.close();
+        NativeLibs.dispose(libs.remove(f.pluginId));
+        reply(HostProtocol.OK, f);
+    }
+
+    private void reply(byte type, HostProtocol.Frame req, String... strings) {
+        writer.send(HostProtocol.encode(type, req.id, req.pluginId, strings));
+    }
+}
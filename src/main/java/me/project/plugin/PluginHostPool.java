@@ -0,0 +1,124 @@
+package me.project.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+Пул процессов-хостов плагинов (-Dchat.plugins.hosts=N, 0 — старый режим, всё внутри JVM сервера).
+Каждый плагин загружается во все хосты, вызов уходит в живой хост с наименьшим числом ожидающих ответов.
+Упавший хост перезапускается с нарастающей паузой и заново загружает все зарегистрированные плагины.
+ */
+public class PluginHostPool {
+    public static final int HOSTS = Integer.getInteger("chat.plugins.hosts", 0);
+
+    private final List<PluginHostProcess> hosts = new ArrayList<>();
+    private final Map<Integer, String> loaded = new ConcurrentSkipListMap<>(); // id плагина -> путь, для перезапуска
+    private final Map<PluginHostProcess, Long> backoff = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final ScheduledExecutorService restarter = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "plugin-host-restarter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public PluginHostPool(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            PluginHostProcess h = new PluginHostProcess(this, i);
+            hosts.add(h);
+            h.start();
+            h.ready(); // плагинов еще нет — ждать нечего
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> hosts.forEach(PluginHostProcess::stop)));
+    }
+
+    public RemotePlugin load(File lib) throws IOException {
+        int id = nextId.incrementAndGet();
+        String path = lib.getAbsolutePath();
+        loaded.put(id, path);
+
+        List<CompletableFuture<String[]>> results = new ArrayList<>();
+        for (PluginHostProcess h : hosts) results.add(h.load(id, path));
+        try {
+            // Имя и описание берем у первого ответившего хоста, ошибку — если не загрузился ни один
+            String[] meta = null;
+            Throwable last = null;
+            for (CompletableFuture<String[]> f : results) {
+                try {
+                    String[] r = f.get(PluginHostProcess.LOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    if (meta == null) meta = r;
+                } catch (ExecutionException | TimeoutException e) {
+                    last = e instanceof ExecutionException ? e.getCause() : e;
+                }
+            }
+            if (meta == null) throw new IOException(last != null ? last.getMessage() : "No plugin hosts");
+            return new RemotePlugin(this, id, meta[0], meta[1], number(meta, 2), number(meta, 3),
+                    number(meta, 4) != 0, number(meta, 5));
+        } catch (IOException e) {
+            unload(id);
+            throw e;
+        } catch (InterruptedException e) {
+            unload(id);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+    }
+
+    private static int number(String[] meta, int i) {
+        return meta.length > i && meta[i] != null ? Integer.parseInt(meta[i]) : 0;
+    }
+
+    CompletableFuture<String> call(int id, String sender, String text) {
+        return send(HostProtocol.CALL, id, sender, text);
+    }
+
+    CompletableFuture<String> hook(int id, String sender, String room, String text) {
+        return send(HostProtocol.HOOK, id, sender, room, text);
+    }
+
+    private CompletableFuture<String> send(byte type, int id, String... args) {
+        PluginHostProcess best = null;
+        for (PluginHostProcess h : hosts) {
+            if (!h.isAlive()) continue;
+            if (best == null || h.outstanding() < best.outstanding()) best = h;
+        }
+        if (best == null) return CompletableFuture.failedFuture(new IOException("All plugin hosts are down"));
+        return best.request(type, id, args).thenApply(r -> r[0]);
+    }
+
+    void unload(int id) {
+        if (loaded.remove(id) == null) return;
+        for (PluginHostProcess h : hosts) h.request(HostProtocol.UNLOAD, id);
+    }
+
+    void scheduleRestart(PluginHostProcess h) {
+        long delay = backoff.merge(h, 500L, (a, b) -> Math.min(a * 2, 30_000L));
+        restarter.schedule(() -> {
+            try {
+                h.start();
+                // Вызовы пойдут в хост только после того, как он ответил на все LOAD (иначе обгонят их)
+                List<CompletableFuture<String[]>> loads = new ArrayList<>();
+                for (Map.Entry<Integer, String> e : loaded.entrySet()) loads.add(h.load(e.getKey(), e.getValue()));
+                for (CompletableFuture<String[]> f : loads) {
+                    try {
+                        f.get();
+                    } catch (ExecutionException e) {
+                        System.err.println(" [host " + h.index + "] reload failed: " + e.getCause().getMessage());
+                    }
+                }
+                h.ready();
+                // Если хост продержался минуту, следующий перезапуск снова будет быстрым
+                restarter.schedule(() -> { if (h.isAlive()) backoff.remove(h); }, 60, TimeUnit.SECONDS);
+            } catch (IOException e) {
+                System.err.println(" [host " + h.index + "] restart failed: " + e.getMessage());
+                scheduleRestart(h);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+}
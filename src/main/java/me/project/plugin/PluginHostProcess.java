@@ -0,0 +1,188 @@
+package me.project.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Один дочерний процесс PluginHost со стороны сервера.
+Запросы из любых потоков мультиплексируются в один канал (id -> future), читатель раздает ответы.
+Если процесс умер (segfault в плагине, kill), все ожидающие вызовы завершаются ошибкой, а пул перезапускает хост.
+Каждый запрос ждет ответа не дольше дедлайна (LOAD — LOAD_TIMEOUT_MS, остальные — chat.plugin.timeoutMs),
+потом завершается TimeoutException и уходит из pending: зависший хост не копит неотвеченные future.
+Два флага: connected — канал к процессу есть, можно слать LOAD; alive — плагины в нем загружены, можно слать вызовы.
+После (пере)запуска пул сначала дожидается ответов на все LOAD и только потом зовет ready().
+ */
+class PluginHostProcess {
+    final int index;
+    private final PluginHostPool pool;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, CompletableFuture<String[]>> pending = new ConcurrentHashMap<>();
+
+    private static final long CONNECT_TIMEOUT_MS = 15_000;
+    static final long LOAD_TIMEOUT_MS = 10_000;
+
+    private volatile Process process;
+    private volatile SocketChannel channel;
+    private volatile HostProtocol.Writer writer;
+    private volatile boolean connected;
+    private volatile boolean alive;
+
+    PluginHostProcess(PluginHostPool pool, int index) {
+        this.pool = pool;
+        this.index = index;
+    }
+
+    synchronized void start() throws IOException {
+        Path sock = Path.of(System.getProperty("java.io.tmpdir"),
+                "chat-host-" + ProcessHandle.current().pid() + "-" + index + ".sock");
+        Files.deleteIfExists(sock);
+
+        SocketChannel ch;
+        Process p;
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             Selector sel = Selector.open()) {
+            server.bind(UnixDomainSocketAddress.of(sock));
+            server.configureBlocking(false);
+            server.register(sel, SelectionKey.OP_ACCEPT);
+
+            String java = ProcessHandle.current().info().command()
+                    .orElse(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+            List<String> cmd = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path")));
+            String jnaPath = System.getProperty("jna.library.path");
+            if (jnaPath != null) cmd.add("-Djna.library.path=" + jnaPath);
+            cmd.add(PluginHost.class.getName());
+            cmd.add(sock.toString());
+
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+            p = pb.start();
+
+            // Ждем, пока хост подключится (но не вечно: он мог умереть на старте)
+            if (sel.select(CONNECT_TIMEOUT_MS) == 0 || (ch = server.accept()) == null) {
+                p.destroyForcibly();
+                throw new IOException("Plugin host " + index + " did not connect");
+            }
+            ch.configureBlocking(true);
+        } finally {
+            Files.deleteIfExists(sock);
+        }
+        HostProtocol.Writer w = new HostProtocol.Writer(HostProtocol.out(ch));
+
+        channel = ch;
+        process = p;
+        writer = w;
+        connected = true;
+
+        Thread wt = new Thread(w, "plugin-host-" + index + "-writer");
+        wt.setDaemon(true);
+        wt.start();
+        Thread rt = new Thread(() -> readLoop(p, ch), "plugin-host-" + index + "-reader");
+        rt.setDaemon(true);
+        rt.start();
+        System.out.println(" [host " + index + "] started, pid " + p.pid());
+    }
+
+    // Вызовы (CALL, HOOK, UNLOAD) — только в готовый хост
+    CompletableFuture<String[]> request(byte type, int pluginId, String... strings) {
+        if (!alive) return CompletableFuture.failedFuture(new IOException("Plugin host " + index + " is restarting"));
+        return send(type, pluginId, strings);
+    }
+
+    // LOAD можно и в хост, который еще поднимается: иначе плагин, добавленный во время перезапуска, туда не попадет
+    CompletableFuture<String[]> load(int pluginId, String path) {
+        if (!connected) return CompletableFuture.failedFuture(new IOException("Plugin host " + index + " is down"));
+        return send(HostProtocol.LOAD, pluginId, path);
+    }
+
+    // Плагины загружены — хост начинает получать вызовы (если он не успел снова упасть)
+    synchronized void ready() {
+        if (connected) alive = true;
+    }
+
+    private CompletableFuture<String[]> send(byte type, int pluginId, String... strings) {
+        CompletableFuture<String[]> f = new CompletableFuture<>();
+        long id = ids.incrementAndGet();
+        pending.put(id, f);
+        f.orTimeout(type == HostProtocol.LOAD ? LOAD_TIMEOUT_MS : PluginExecutor.TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenComplete((r, err) -> pending.remove(id, f));
+        writer.send(HostProtocol.encode(type, id, pluginId, strings));
+        return f;
+    }
+
+    boolean isAlive() {
+        return alive;
+    }
+
+    int outstanding() {
+        return pending.size();
+    }
+
+    private void readLoop(Process p, SocketChannel ch) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(HostProtocol.in(ch), 64 * 1024))) {
+            HostProtocol.Frame f;
+            while ((f = HostProtocol.read(in)) != null) {
+                CompletableFuture<String[]> fut = pending.remove(f.id);
+                if (fut == null) continue;
+                if (f.type == HostProtocol.OK) fut.complete(f.strings);
+                else fut.completeExceptionally(new IOException(f.strings.length > 0 ? f.strings[0] : "Plugin host error"));
+            }
+        } catch (IOException e) {
+            // поток оборвался или прислал мусор — то же самое, что падение
+            System.err.println(" [host " + index + "] " + e.getMessage());
+        }
+        crashed(p);
+    }
+
+    private void crashed(Process p) {
+        synchronized (this) {
+            if (process != p) return;
+            connected = false;
+            alive = false;
+        }
+        writer.close();
+        closeChannel();
+        p.destroy();
+        int code;
+        try { code = p.waitFor(); } catch (InterruptedException e) { code = -1; }
+        IOException err = new IOException("Plugin host crashed (exit " + code + ")");
+        for (Long id : new ArrayList<>(pending.keySet())) {
+            CompletableFuture<String[]> f = pending.remove(id);
+            if (f != null) f.completeExceptionally(err);
+        }
+        System.err.println(" [host " + index + "] died with exit code " + code + ", restarting");
+        pool.scheduleRestart(this);
+    }
+
+    void stop() {
+        Process p = process;
+        connected = false;
+        alive = false;
+        process = null;
+        if (writer != null) writer.close();
+        closeChannel();
+        if (p != null) p.destroy();
+    }
+
+    private void closeChannel() {
+        SocketChannel ch = channel;
+        if (ch != null) try { ch.close(); } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,97 @@
+package me.project.plugin;
+
+import me.project.PluginInterface;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/*
+Плагин, который живет в процессе-хосте. Для остального сервера выглядит как обычный PluginInterface:
+имя, описание, настройки кэша и фильтра пришли при загрузке, вызовы уходят в PluginHostPool.
+Сервер зовет call/hook: ответ приходит в CompletableFuture, и ни один поток сервера его не ждет
+(LoadedPlugin пропускает их через PluginExecutor.submitAsync). Синхронные handle_message/on_message
+остались для PluginInterface; запрос к хосту сам завершается ошибкой по таймауту, так что они не зависнут.
+ */
+public class RemotePlugin implements PluginInterface {
+    public final int id;
+    private final PluginHostPool pool;
+    private final String name;
+    private final String description;
+    private final int cacheTtl;
+    private final int cachePerSender;
+    private final boolean hook;
+    private final int phase;
+
+    RemotePlugin(PluginHostPool pool, int id, String name, String description, int cacheTtl, int cachePerSender,
+                 boolean hook, int phase) {
+        this.pool = pool;
+        this.id = id;
+        this.name = name;
+        this.description = description;
+        this.cacheTtl = cacheTtl;
+        this.cachePerSender = cachePerSender;
+        this.hook = hook;
+        this.phase = phase;
+    }
+
+    public CompletableFuture<String> call(String sender, String text) {
+        return pool.call(id, sender, text);
+    }
+
+    public CompletableFuture<String> hook(String sender, String room, String text) {
+        return pool.hook(id, sender, room, text);
+    }
+
+    @Override
+    public String handle_message(String sender, String text) {
+        return join(call(sender, text));
+    }
+
+    @Override
+    public String on_message(String sender, String room, String text) {
+        return join(hook(sender, room, text));
+    }
+
+    private static String join(CompletableFuture<String> reply) {
+        try {
+            return reply.join();
+        } catch (CompletionException e) {
+            Throwable cause = PluginExecutor.unwrap(e);
+            throw new RuntimeException(cause.getMessage(), cause);
+        }
+    }
+
+    @Override
+    public String get_name() {
+        return name;
+    }
+
+    @Override
+    public String get_description() {
+        return description;
+    }
+
+    @Override
+    public int cache_ttl() {
+        return cacheTtl;
+    }
+
+    @Override
+    public int cache_per_sender() {
+        return cachePerSender;
+    }
+
+    @Override
+    public int on_message_phase() {
+        return phase;
+    }
+
+    // Экспортирует ли библиотека on_message (узнали у хоста при загрузке)
+    public boolean hasHook() {
+        return hook;
+    }
+
+    public void unload() {
+        pool.unload(id);
+    }
+}
@@ -0,0 +1,96 @@
+package me.project.plugin;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+Кэш ответов "чистых" плагинов (тех, что экспортируют cache_ttl() > 0, см. api.h).
+Ключ — текст команды (плюс отправитель, если плагин вернул cache_per_sender() != 0).
+Кэш живет внутри одной версии LoadedPlugin, так что версия — неявная часть ключа: новая версия
+начинает с пустого кэша, а старая чистит свой при retire.
+LRU по доступу, ограничен и по числу записей, и по примерному объему в байтах (chat.plugin.cacheBytes,
+chat.plugin.cacheEntries); запись старше ttl считается промахом.
+ */
+public class ResultCache {
+    public static final long MAX_BYTES = Long.getLong("chat.plugin.cacheBytes", 1024 * 1024);
+    public static final int MAX_ENTRIES = Integer.getInteger("chat.plugin.cacheEntries", 4096);
+
+    public final LongAdder hits = new LongAdder();
+    public final LongAdder misses = new LongAdder();
+
+    private final long ttlNanos;
+    private final boolean perSender;
+
+    // Под synchronized(this)
+    private final LinkedHashMap<String, Value> map = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private static class Value {
+        final String text;
+        final long expires;
+        final int size;
+
+        Value(String text, long expires, int size) {
+            this.text = text;
+            this.expires = expires;
+            this.size = size;
+        }
+    }
+
+    public ResultCache(int ttlSeconds, boolean perSender) {
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        this.perSender = perSender;
+    }
+
+    public String key(String sender, String text) {
+        return perSender ? sender + '\0' + text : text;
+    }
+
+    // null — промах (нет или протухло)
+    public synchronized String get(String key) {
+        Value v = map.get(key);
+        if (v != null && v.expires - System.nanoTime() > 0) {
+            hits.increment();
+            return v.text;
+        }
+        if (v != null) remove(key);
+        misses.increment();
+        return null;
+    }
+
+    public synchronized void put(String key, String value) {
+        if (value == null) return;
+        // Примерно: char-ы ключа и ответа + накладные расходы на объекты и узел карты
+        int size = 2 * (key.length() + value.length()) + 96;
+        if (size > MAX_BYTES) return;
+        Value old = map.put(key, new Value(value, System.nanoTime() + ttlNanos, size));
+        if (old != null) bytes -= old.size;
+        bytes += size;
+
+        Iterator<Map.Entry<String, Value>> it = map.entrySet().iterator();
+        while ((bytes > MAX_BYTES || map.size() > MAX_ENTRIES) && it.hasNext()) {
+            bytes -= it.next().getValue().size;
+            it.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        bytes = 0;
+    }
+
+    private void remove(String key) {
+        Value v = map.remove(key);
+        if (v != null) bytes -= v.size;
+    }
+}
@@ -0,0 +1,444 @@
+package me.project.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+Оффлайн-почта на диске (вместо offlineMessages в куче).
+1. Формат: папка с сегментами seg-000001.log, seg-000002.log... Пишем только в конец последнего сегмента.
+   Запись: [int длина][byte тип][long seq][short длина ника][ник][тело]
+   MAIL  — письмо для ника, тело: [long время записи, мс][текст] (MSG — то же без времени, из старых сегментов);
+   DRAIN — "ник забрал почту": убирает его письма с seq меньше seq этой записи
+           (чтобы после перезапуска письма не пришли второй раз). Почта, которая переезжает на другой узел,
+           сначала читается без удаления (peek), а DRAIN с seq из peek пишется, только когда тот узел ее принял:
+           письма, пришедшие в промежутке, при этом остаются.
+2. Индекс: в памяти только "ник -> где лежат его письма" (сегмент + смещение), сами тексты остаются на диске
+   и читаются через MappedByteBuffer при входе пользователя.
+3. Перезапуск: сегменты читаются по порядку, MAIL/MSG добавляют письмо в индекс, DRAIN его очищает.
+   Оборванная запись в конце (сервер упал посреди write) обрезается.
+4. Компактирование (фоновый поток, раз в chat.mailbox.compactSeconds):
+   сначала срок хранения — ящик, в который ничего не приходило дольше chat.mailbox.ttlHours (по умолчанию 30 дней),
+   выбрасывается целиком; иначе почта на ник, который никогда не зайдет (опечатка в @ник), жила бы на диске
+   и в индексе вечно. Потом каждый закрытый сегмент, где живых писем не больше половины, переписывается:
+   живые письма уходят в конец, DRAIN-записи — тоже, если в более старых сегментах еще есть письма этому нику,
+   и файл удаляется. DRAIN привязан к seq, а не к месту в файле, поэтому переносить его можно, и плотный старый
+   сегмент не мешает чистить остальные. Порядок писем держится на seq.
+5. Запись, чтение и перемапливание сегментов — это диск, поэтому цикл NIO и линии кластера зовут *Async:
+   операции выполняются на одном потоке mailbox-io (в порядке вызова), а ответ приходит в CompletableFuture.
+ */
+public class MailboxStore {
+    private static final byte MSG = 1;
+    private static final byte DRAIN = 2;
+    private static final byte MAIL = 3;
+    private static final int HEADER = 4 + 1 + 8 + 2;
+
+    private final File dir;
+    private final long segmentSize;
+    private final int limit;
+    private final long ttlMillis; // 0 — хранить бессрочно
+
+    // Все поля ниже — под synchronized(this)
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<String, List<Entry>> index = new HashMap<>();
+    private Segment active;
+    private long seq;
+
+    private final ExecutorService io = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "mailbox-io");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "mailbox-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static class Segment {
+        final int id;
+        final File file;
+        final FileChannel ch;
+        MappedByteBuffer map; // read-only отображение, пересоздается, когда файл вырос
+        long size;
+        int total; // сколько писем записано в сегмент
+        int live;  // сколько из них еще не забрано
+        final Set<String> users = new HashSet<>(); // кому здесь есть письма (живые или нет) — чтобы знать, нужен ли DRAIN
+
+        Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = ch.size();
+        }
+
+        ByteBuffer view() throws IOException {
+            if (map == null || map.capacity() < size) map = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return map.duplicate();
+        }
+    }
+
+    private static class Entry {
+        final long seq;
+        final long time; // когда письмо записано (у старых MSG — время изменения сегмента)
+        Segment segment;
+        long offset;
+        int length;
+
+        Entry(long seq, long time, Segment segment, long offset, int length) {
+            this.seq = seq;
+            this.time = time;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    public MailboxStore(File dir, long segmentSize, int limit, long ttlMillis) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.limit = limit;
+        this.ttlMillis = ttlMillis;
+        if (!dir.exists()) dir.mkdirs();
+        recover();
+        long period = Long.getLong("chat.mailbox.compactSeconds", 60);
+        compactor.scheduleWithFixedDelay(this::compactSafe, period, period, TimeUnit.SECONDS);
+    }
+
+    public static MailboxStore openDefault() throws IOException {
+        return new MailboxStore(
+                new File(System.getProperty("chat.mailbox.dir", "mailbox")),
+                Long.getLong("chat.mailbox.segmentBytes", 16L * 1024 * 1024),
+                Integer.getInteger("chat.mailbox.limit", 10),
+                TimeUnit.HOURS.toMillis(Long.getLong("chat.mailbox.ttlHours", 30 * 24)));
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    public CompletableFuture<Boolean> appendAsync(String user, String msg) {
+        return async(() -> append(user, msg));
+    }
+
+    public CompletableFuture<List<String>> drainAsync(String user) {
+        return async(() -> drain(user));
+    }
+
+    // Письма, которые уже были приняты (например, переехали с другого узла): лимит ящика не проверяется
+    public CompletableFuture<Void> restoreAsync(String user, List<String> mail) {
+        return async(() -> {
+            restore(user, mail);
+            return null;
+        });
+    }
+
+    private interface IoCall<T> {
+        T run() throws IOException;
+    }
+
+    public CompletableFuture<Peek> peekAsync(String user) {
+        return async(() -> peek(user));
+    }
+
+    public CompletableFuture<Void> drainThroughAsync(String user, long through) {
+        return async(() -> {
+            drainThrough(user, through);
+            return null;
+        });
+    }
+
+    // Ошибка приходит в future как есть (IOException), без обертки
+    private <T> CompletableFuture<T> async(IoCall<T> call) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        io.execute(() -> {
+            try {
+                f.complete(call.run());
+            } catch (Throwable e) {
+                f.completeExceptionally(e);
+            }
+        });
+        return f;
+    }
+
+    // false — ящик полон
+    public synchronized boolean append(String user, String msg) throws IOException {
+        List<Entry> box = index.get(user);
+        if (box != null && box.size() >= limit) return false;
+        add(user, msg);
+        return true;
+    }
+
+    public synchronized void restore(String user, List<String> mail) throws IOException {
+        for (String msg : mail) add(user, msg);
+    }
+
+    private void add(String user, String msg) throws IOException {
+        long s = ++seq;
+        long now = System.currentTimeMillis();
+        long offset = write(MAIL, s, user, now, msg);
+        index.computeIfAbsent(user, k -> new ArrayList<>()).add(new Entry(s, now, active, offset, (int) (active.size - offset)));
+        active.total++;
+        active.live++;
+        active.users.add(user);
+    }
+
+    // Забирает и удаляет всю почту ника (пустой список, если писем нет)
+    public synchronized List<String> drain(String user) throws IOException {
+        List<Entry> box = index.remove(user);
+        if (box == null || box.isEmpty()) return Collections.emptyList();
+        List<String> out = new ArrayList<>(box.size());
+        for (Entry e : box) {
+            out.add(readText(e));
+            e.segment.live--;
+        }
+        write(DRAIN, ++seq, user, 0, "");
+        return out;
+    }
+
+    // Письма ника без удаления; through — граница для drainThrough (письма, пришедшие после peek, она не задевает)
+    public synchronized Peek peek(String user) throws IOException {
+        List<Entry> box = index.get(user);
+        if (box == null || box.isEmpty()) return new Peek(0, Collections.emptyList());
+        List<String> out = new ArrayList<>(box.size());
+        long through = 0;
+        for (Entry e : box) {
+            out.add(readText(e));
+            through = Math.max(through, e.seq + 1);
+        }
+        return new Peek(through, out);
+    }
+
+    // Удаляет письма, которые выдал peek (seq < through). Если их уже забрали (drain) — ничего не пишет
+    public synchronized void drainThrough(String user, long through) throws IOException {
+        List<Entry> box = index.get(user);
+        if (box == null || box.stream().noneMatch(e -> e.seq < through)) return;
+        drop(user, box, through);
+        write(DRAIN, through, user, 0, "");
+    }
+
+    public static final class Peek {
+        public final long through;
+        public final List<String> mail;
+
+        Peek(long through, List<String> mail) {
+            this.through = through;
+            this.mail = mail;
+        }
+    }
+
+    // --- Запись ---
+
+    private long write(byte type, long s, String user, long time, String msg) throws IOException {
+        byte[] u = user.getBytes(StandardCharsets.UTF_8);
+        byte[] m = msg.getBytes(StandardCharsets.UTF_8);
+        if (u.length > 0xFFFF) throw new IOException("Name too long");
+        int len = HEADER + u.length + (type == MAIL ? 8 : 0) + m.length;
+        if (active == null || active.size + len > segmentSize) roll();
+
+        ByteBuffer b = ByteBuffer.allocate(len);
+        b.putInt(len).put(type).putLong(s).putShort((short) u.length).put(u);
+        if (type == MAIL) b.putLong(time);
+        b.put(m).flip();
+        long offset = active.size;
+        while (b.hasRemaining()) active.ch.write(b, offset + b.position());
+        active.size += len;
+        return offset;
+    }
+
+    private void roll() throws IOException {
+        int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        active = new Segment(id, new File(dir, String.format("seg-%06d.log", id)));
+        segments.put(id, active);
+    }
+
+    private String readText(Entry e) throws IOException {
+        ByteBuffer v = e.segment.view();
+        v.position((int) e.offset + 4);
+        byte type = v.get();
+        v.getLong();
+        int userLen = v.getShort() & 0xFFFF;
+        v.position(v.position() + userLen);
+        if (type == MAIL) v.getLong();
+        byte[] text = new byte[e.length - (int) (v.position() - e.offset)];
+        v.get(text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    // Обход записей сегмента; v стоит на начале тела. Возвращает смещение сразу после последней целой записи
+    private interface RecordVisitor {
+        void visit(byte type, long seq, String user, long pos, int len, ByteBuffer v) throws IOException;
+    }
+
+    private static long scan(Segment seg, RecordVisitor visitor) throws IOException {
+        if (seg.size == 0) return 0;
+        ByteBuffer v = seg.view();
+        long pos = 0;
+        while (pos + HEADER <= seg.size) {
+            v.position((int) pos);
+            int len = v.getInt();
+            if (len < HEADER || pos + len > seg.size) break;
+            byte type = v.get();
+            long s = v.getLong();
+            int userLen = v.getShort() & 0xFFFF;
+            if (HEADER + userLen + (type == MAIL ? 8 : 0) > len) break;
+            byte[] u = new byte[userLen];
+            v.get(u);
+            visitor.visit(type, s, new String(u, StandardCharsets.UTF_8), pos, len, v);
+            pos += len;
+        }
+        return pos;
+    }
+
+    // --- Восстановление ---
+
+    private synchronized void recover() throws IOException {
+        File[] junk = dir.listFiles((d, name) -> name.endsWith(".trash"));
+        if (junk != null) for (File f : junk) f.delete();
+
+        File[] files = dir.listFiles((d, name) -> name.startsWith("seg-") && name.endsWith(".log"));
+        if (files != null) {
+            for (File f : files) {
+                int id = Integer.parseInt(f.getName().substring(4, f.getName().length() - 4));
+                segments.put(id, new Segment(id, f));
+            }
+        }
+        for (Segment seg : segments.values()) {
+            long good = replay(seg);
+            if (good < seg.size) {
+                System.err.println("[Mailbox] Truncating torn tail of " + seg.file.getName() + " at " + good);
+                seg.ch.truncate(good);
+                seg.size = good;
+                seg.map = null;
+            }
+        }
+        for (List<Entry> box : index.values()) box.sort(Comparator.comparingLong(e -> e.seq));
+        if (!segments.isEmpty()) active = segments.lastEntry().getValue();
+        int mails = 0;
+        for (List<Entry> box : index.values()) mails += box.size();
+        System.out.println("[Mailbox] " + segments.size() + " segments, " + mails + " pending messages for " + index.size() + " users");
+    }
+
+    private long replay(Segment seg) throws IOException {
+        long modified = seg.file.lastModified();
+        return scan(seg, (type, s, user, pos, len, v) -> {
+            seq = Math.max(seq, s);
+            if (type == MSG || type == MAIL) {
+                long time = type == MAIL ? v.getLong() : modified;
+                index.computeIfAbsent(user, k -> new ArrayList<>()).add(new Entry(s, time, seg, pos, len));
+                seg.total++;
+                seg.live++;
+                seg.users.add(user);
+            } else if (type == DRAIN) {
+                List<Entry> box = index.get(user);
+                if (box != null) drop(user, box, s);
+            }
+        });
+    }
+
+    // Убирает из ящика письма с seq < through (при чтении ящик еще не отсортирован: переписанные письма идут позже)
+    private void drop(String user, List<Entry> box, long through) {
+        box.removeIf(e -> {
+            if (e.seq >= through) return false;
+            e.segment.live--;
+            return true;
+        });
+        if (box.isEmpty()) index.remove(user);
+    }
+
+    // --- Компактирование ---
+
+    private void compactSafe() {
+        try {
+            compact();
+        } catch (Throwable e) {
+            System.err.println("[Mailbox] Compaction failed: " + e.getMessage());
+        }
+    }
+
+    public synchronized void compact() throws IOException {
+        expire();
+        for (Segment seg : new ArrayList<>(segments.values())) {
+            if (seg == active) break;
+            boolean oldest = seg == segments.firstEntry().getValue();
+            // Переписываем, только если живых не больше половины: иначе это просто копирование ради копирования.
+            // Сегмент из одних DRAIN ждет, пока не станет самым старым, — тогда его записи больше не нужны
+            if (seg.total == 0 ? !oldest : seg.live * 2 > seg.total) continue;
+            rewrite(seg, oldest);
+        }
+    }
+
+    // Ящики, в которые ничего не приходило дольше ttl: ник, скорее всего, не зайдет никогда
+    private void expire() throws IOException {
+        if (ttlMillis <= 0) return;
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        int users = 0, mails = 0;
+        for (Iterator<Map.Entry<String, List<Entry>>> it = index.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, List<Entry>> box = it.next();
+            List<Entry> list = box.getValue();
+            long touched = 0;
+            for (Entry e : list) touched = Math.max(touched, e.time);
+            if (touched >= cutoff) continue;
+            it.remove();
+            for (Entry e : list) e.segment.live--;
+            write(DRAIN, ++seq, box.getKey(), 0, "");
+            users++;
+            mails += list.size();
+        }
+        if (users > 0) System.out.println("[Mailbox] Expired " + mails + " messages for " + users + " users");
+    }
+
+    // Живые письма (и еще нужные DRAIN) — в конец активного сегмента, сам сегмент — удалить
+    private void rewrite(Segment seg, boolean oldest) throws IOException {
+        Map<String, Long> drains = new HashMap<>();
+        scan(seg, (type, s, user, pos, len, v) -> {
+            if (type == DRAIN) {
+                if (!oldest && inOlder(seg, user)) drains.merge(user, s, Math::max);
+                return;
+            }
+            List<Entry> box = index.get(user);
+            if (box == null) return;
+            for (Entry e : box) {
+                if (e.segment != seg || e.offset != pos) continue;
+                String text = readText(e);
+                long offset = write(MAIL, e.seq, user, e.time, text);
+                e.segment = active;
+                e.offset = offset;
+                e.length = (int) (active.size - offset);
+                active.total++;
+                active.live++;
+                active.users.add(user);
+                break;
+            }
+        });
+        for (Map.Entry<String, Long> d : drains.entrySet()) write(DRAIN, d.getValue(), d.getKey(), 0, "");
+
+        segments.remove(seg.id);
+        seg.ch.close();
+        seg.map = null;
+        if (!seg.file.delete()) {
+            // Windows не дает удалить отображенный файл — как с плагинами, переименовываем в мусор
+            File trash = new File(seg.file.getParent(), seg.file.getName() + ".trash");
+            seg.file.renameTo(trash);
+            trash.deleteOnExit();
+        }
+    }
+
+    private boolean inOlder(Segment seg, String user) {
+        for (Segment older : segments.headMap(seg.id).values()) {
+            if (older.users.contains(user)) return true;
+        }
+        return false;
+    }
+}
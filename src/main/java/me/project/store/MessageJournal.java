@@ -0,0 +1,351 @@
+package me.project.store;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/*
+Журнал переписки (write-ahead log): все сообщения комнат и личка.
+1. Запись не блокирует чат: append() только кладет готовую запись в очередь. Отдельный поток-писатель
+   забирает всё, что накопилось, пишет одной пачкой и делает fsync не чаще раза в chat.journal.flushMs
+   (group commit: один fsync на пачку, а не на каждую строку). Если диск не успевает и очередь полна — запись
+   выкидывается и считается в dropped, чат важнее журнала.
+2. Файлы: journal/j-000001.log, j-000002.log... Новый сегмент — по размеру, старые удаляются сверх chat.journal.segments.
+   Запись: [int длина][long время][byte тип][short+комната][short+от кого][short+кому][текст]
+3. Хвостовой индекс: в памяти кольцо из последних chat.journal.tail записей (где лежит + метаданные для фильтра).
+   #history N берет из кольца нужные записи и читает с диска только их, целиком файлы не читаются.
+   Под блокировкой журнала берется только список записей и каналы их сегментов; само чтение идет без нее,
+   на потоке journal-reader (historyAsync), так что ни писатель с fsync, ни цикл NIO его не ждут.
+ */
+public class MessageJournal {
+    public static final byte PUBLIC = 1;
+    public static final byte PRIVATE = 2;
+    public static final String ALL_ROOMS = "*";
+
+    private static final int HEADER = 4 + 8 + 1;
+
+    private final File dir;
+    private final long segmentBytes;
+    private final int keepSegments;
+    private final long flushMs;
+
+    private final BlockingQueue<ByteBuffer> queue;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final ExecutorService readers = Executors.newFixedThreadPool(Integer.getInteger("chat.journal.readers", 2), r -> {
+        Thread t = new Thread(r, "journal-reader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Сегменты и кольцо — под synchronized(this); пишет только поток журнала
+    private final TreeMap<Integer, FileChannel> segments = new TreeMap<>();
+    private final Ref[] tail;
+    private int tailHead; // следующая ячейка для записи
+    private int tailCount;
+    private int activeId;
+    private FileChannel active;
+    private long activeSize;
+
+    // Одна запись в хвостовом индексе
+    public static class Ref {
+        final int segment;
+        final long offset;
+        final int length;
+        public final long time;
+        public final byte kind;
+        public final String room, from, to;
+
+        Ref(int segment, long offset, int length, long time, byte kind, String room, String from, String to) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.time = time;
+            this.kind = kind;
+            this.room = room;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    public static class Entry {
+        public final Ref ref;
+        public final String text;
+
+        Entry(Ref ref, String text) {
+            this.ref = ref;
+            this.text = text;
+        }
+    }
+
+    public MessageJournal(File dir, long segmentBytes, int keepSegments, long flushMs, int tailSize) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.keepSegments = Math.max(1, keepSegments);
+        this.flushMs = flushMs;
+        this.tail = new Ref[Math.max(1, tailSize)];
+        this.queue = new ArrayBlockingQueue<>(Integer.getInteger("chat.journal.queue", 65536));
+        if (!dir.exists()) dir.mkdirs();
+        recover();
+
+        Thread writer = new Thread(this::writeLoop, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static MessageJournal openDefault() throws IOException {
+        return new MessageJournal(
+                new File(System.getProperty("chat.journal.dir", "journal")),
+                Long.getLong("chat.journal.segmentBytes", 64L * 1024 * 1024),
+                Integer.getInteger("chat.journal.segments", 16),
+                Long.getLong("chat.journal.flushMs", 200),
+                Integer.getInteger("chat.journal.tail", 10000));
+    }
+
+    // --- Запись (вызывается из потоков чата) ---
+
+    public void append(byte kind, String room, String from, String to, String text) {
+        byte[] r = bytes(room), f = bytes(from), t = bytes(to), x = text.getBytes(StandardCharsets.UTF_8);
+        int len = HEADER + 6 + r.length + f.length + t.length + x.length;
+        ByteBuffer b = ByteBuffer.allocate(len);
+        b.putInt(len).putLong(System.currentTimeMillis()).put(kind);
+        b.putShort((short) r.length).put(r).putShort((short) f.length).put(f).putShort((short) t.length).put(t).put(x);
+        b.flip();
+        if (!queue.offer(b)) dropped.incrementAndGet();
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    private static byte[] bytes(String s) {
+        byte[] b = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        return b.length > 0xFFFF ? Arrays.copyOf(b, 0xFFFF) : b;
+    }
+
+    private void writeLoop() {
+        List<ByteBuffer> batch = new ArrayList<>();
+        long lastSync = System.currentTimeMillis();
+        boolean dirty = false;
+        while (true) {
+            try {
+                ByteBuffer first = queue.poll(flushMs, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, 4096);
+                    writeBatch(batch);
+                    batch.clear();
+                    dirty = true;
+                }
+                long now = System.currentTimeMillis();
+                if (dirty && now - lastSync >= flushMs) {
+                    // fsync без блокировки журнала: #history и roll() его не ждут (roll сам сбрасывает старый сегмент)
+                    FileChannel ch;
+                    synchronized (this) { ch = active; }
+                    try { ch.force(false); } catch (ClosedChannelException ignored) {}
+                    lastSync = now;
+                    dirty = false;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("[Journal] Write failed: " + e.getMessage());
+                batch.clear();
+            }
+        }
+    }
+
+    private synchronized void writeBatch(List<ByteBuffer> batch) throws IOException {
+        int i = 0;
+        while (i < batch.size()) {
+            if (active == null || activeSize >= segmentBytes) roll();
+            // Пачка целиком в текущий сегмент (сколько влезет), одним gathering write
+            int from = i;
+            long size = activeSize;
+            while (i < batch.size() && (i == from || size + batch.get(i).remaining() <= segmentBytes)) {
+                size += batch.get(i).remaining();
+                i++;
+            }
+            ByteBuffer[] group = batch.subList(from, i).toArray(new ByteBuffer[0]);
+            long offset = activeSize;
+            for (ByteBuffer b : group) {
+                push(parse(b.duplicate(), activeId, offset));
+                offset += b.remaining();
+            }
+            active.position(activeSize);
+            long left = size - activeSize;
+            while (left > 0) left -= active.write(group);
+            activeSize = size;
+        }
+    }
+
+    private void roll() throws IOException {
+        if (active != null) active.force(false);
+        activeId = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        active = FileChannel.open(segmentFile(activeId).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        activeSize = active.size();
+        segments.put(activeId, active);
+
+        while (segments.size() > keepSegments) {
+            Map.Entry<Integer, FileChannel> old = segments.pollFirstEntry();
+            old.getValue().close();
+            segmentFile(old.getKey()).delete();
+        }
+    }
+
+    private File segmentFile(int id) {
+        return new File(dir, String.format("j-%06d.log", id));
+    }
+
+    // Разбирает заголовок записи (без текста)
+    private static Ref parse(ByteBuffer b, int segment, long offset) {
+        int len = b.getInt();
+        long time = b.getLong();
+        byte kind = b.get();
+        String room = str(b), from = str(b), to = str(b);
+        return new Ref(segment, offset, len, time, kind, room, from, to);
+    }
+
+    private void push(Ref r) {
+        tail[tailHead] = r;
+        tailHead = (tailHead + 1) % tail.length;
+        if (tailCount < tail.length) tailCount++;
+    }
+
+    private static String str(ByteBuffer b) {
+        int n = b.getShort() & 0xFFFF;
+        String s = new String(b.array(), b.arrayOffset() + b.position(), n, StandardCharsets.UTF_8);
+        b.position(b.position() + n);
+        return s;
+    }
+
+    // --- Чтение ---
+
+    // То же, что history, но на потоке journal-reader: для вызова из цикла NIO
+    public CompletableFuture<List<Entry>> historyAsync(int limit, Predicate<Ref> filter) {
+        CompletableFuture<List<Entry>> f = new CompletableFuture<>();
+        readers.execute(() -> {
+            try {
+                f.complete(history(limit, filter));
+            } catch (Throwable e) {
+                f.completeExceptionally(e);
+            }
+        });
+        return f;
+    }
+
+    // Последние limit записей (от старых к новым), прошедшие фильтр; с диска читаются только они
+    public List<Entry> history(int limit, Predicate<Ref> filter) throws IOException {
+        List<Ref> refs = new ArrayList<>();
+        List<FileChannel> channels = new ArrayList<>();
+        synchronized (this) {
+            for (int k = 1; k <= tailCount && refs.size() < limit; k++) {
+                Ref r = tail[(tailHead - k + tail.length) % tail.length];
+                FileChannel ch = segments.get(r.segment);
+                if (ch != null && filter.test(r)) {
+                    refs.add(r);
+                    channels.add(ch);
+                }
+            }
+        }
+        Collections.reverse(refs);
+        Collections.reverse(channels);
+
+        // Позиционное чтение не трогает позицию канала, поэтому идет параллельно с записью
+        List<Entry> out = new ArrayList<>(refs.size());
+        for (int i = 0; i < refs.size(); i++) {
+            Ref r = refs.get(i);
+            ByteBuffer b = ByteBuffer.allocate(r.length);
+            try {
+                FileChannel ch = channels.get(i);
+                while (b.hasRemaining()) {
+                    if (ch.read(b, r.offset + b.position()) < 0) break;
+                }
+            } catch (ClosedChannelException e) {
+                continue; // сегмент удалили по лимиту, пока читали
+            }
+            if (b.hasRemaining()) continue;
+            b.flip();
+            b.position(HEADER);
+            for (int s = 0; s < 3; s++) b.position(b.position() + 2 + (b.getShort(b.position()) & 0xFFFF));
+            out.add(new Entry(r, new String(b.array(), b.position(), b.remaining(), StandardCharsets.UTF_8)));
+        }
+        return out;
+    }
+
+    // --- Восстановление ---
+
+    private synchronized void recover() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.startsWith("j-") && name.endsWith(".log"));
+        if (files != null) {
+            for (File f : files) {
+                int id = Integer.parseInt(f.getName().substring(2, f.getName().length() - 4));
+                segments.put(id, FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE));
+            }
+        }
+        if (segments.isEmpty()) {
+            roll();
+            return;
+        }
+        activeId = segments.lastKey();
+        active = segments.get(activeId);
+
+        // Кольцо заполняем с самых новых сегментов, пока не наберется нужное количество
+        List<Integer> ids = new ArrayList<>(segments.descendingKeySet());
+        List<List<Ref>> found = new ArrayList<>();
+        int total = 0;
+        for (int id : ids) {
+            List<Ref> refs = new ArrayList<>();
+            long good = scan(id, refs);
+            FileChannel ch = segments.get(id);
+            if (good < ch.size()) {
+                System.err.println("[Journal] Truncating torn tail of " + segmentFile(id).getName() + " at " + good);
+                ch.truncate(good);
+            }
+            found.add(refs);
+            total += refs.size();
+            if (total >= tail.length) break;
+        }
+        activeSize = active.size();
+        for (int k = found.size() - 1; k >= 0; k--) {
+            for (Ref r : found.get(k)) push(r);
+        }
+        System.out.println("[Journal] " + segments.size() + " segments, " + tailCount + " recent messages indexed");
+    }
+
+    // Последовательно читает заголовки записей сегмента; возвращает конец последней целой записи
+    private long scan(int id, List<Ref> refs) throws IOException {
+        long pos = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile(id)), 64 * 1024))) {
+            while (true) {
+                int len;
+                try { len = in.readInt(); } catch (EOFException e) { break; }
+                if (len < HEADER + 6 || len > segmentBytes + (1 << 20)) break;
+                byte[] rest = new byte[len - 4];
+                try { in.readFully(rest); } catch (EOFException e) { break; }
+                ByteBuffer b = ByteBuffer.allocate(len);
+                b.putInt(len).put(rest).flip();
+                try {
+                    refs.add(parse(b, id, pos));
+                } catch (RuntimeException e) {
+                    break; // мусор вместо заголовка — дальше не читаем
+                }
+                pos += len;
+            }
+        }
+        return pos;
+    }
+}